@@ -0,0 +1,42 @@
+package com.trophonix.txt;
+
+import javax.swing.Timer;
+
+/**
+ * Merges change notifications into at most one UI update per frame. Every
+ * edit, undo or caret move only marks the window as changed; the update runs
+ * once, a frame after the first mark, however many marks came in between.
+ */
+public class ChangeNotifier {
+
+    static final int FRAME_MILLIS = 16;
+
+    private final Runnable update;
+    private final Diagnostics diagnostics;
+    private final Timer timer;
+
+    ChangeNotifier(Runnable update, Diagnostics diagnostics) {
+        this.update = update;
+        this.diagnostics = diagnostics;
+        timer = new Timer(FRAME_MILLIS, event -> flush());
+        timer.setRepeats(false);
+    }
+
+    /**
+     * Marks that something changed. Only call from the event thread.
+     */
+    void changed() {
+        diagnostics.changeReported();
+        if (!timer.isRunning()) timer.start();
+    }
+
+    /**
+     * Runs the update now, with anything still pending.
+     */
+    void flush() {
+        timer.stop();
+        diagnostics.updateRun();
+        update.run();
+    }
+
+}
@@ -0,0 +1,156 @@
+package com.trophonix.txt;
+
+import javax.swing.text.Document;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * Knows whether the document still matches what was last saved without
+ * looking at its text. Every edit moves the document to a new state number and
+ * undo/redo move it back and forth, so being at the saved state is an O(1)
+ * check. When an edit sequence leads back to the same text by another route
+ * (typing a letter and deleting it), the piece table's content hash catches it.
+ */
+public class ChangeTracker {
+
+    private long nextState = 1;
+    private long state;
+
+    private SavePoint saved;
+
+    UndoableEdit track(UndoableEdit edit) {
+        long before = state;
+        state = nextState++;
+        return new TrackedEdit(edit, before, state);
+    }
+
+    boolean isDirty(Document document) {
+        if (state == saved.state) return false;
+        if (!saved.hashKnown || document.getLength() != saved.length) return true;
+        return ((PieceTableText) document).contentHash() != saved.hash;
+    }
+
+    /**
+     * Remembers the document as it is now, to be marked as saved once it has
+     * actually been written.
+     */
+    SavePoint capture(Document document) {
+        return new SavePoint(this, document);
+    }
+
+    void markSaved(SavePoint savePoint) {
+        if (savePoint.tracker == this) saved = savePoint;
+    }
+
+    void markSaved(Document document) {
+        markSaved(capture(document));
+    }
+
+    /**
+     * Marks the document as changed until it's next saved, for text whose
+     * saved version isn't known here.
+     */
+    void markUnsaved() {
+        saved = new SavePoint(this);
+    }
+
+    static class SavePoint {
+
+        private final ChangeTracker tracker;
+        private final long state;
+        private final int length;
+        private final boolean hashKnown;
+        private final long hash;
+
+        private SavePoint(ChangeTracker tracker, Document document) {
+            this.tracker = tracker;
+            this.state = tracker.state;
+            this.length = document.getLength();
+            this.hashKnown = document instanceof PieceTableText;
+            this.hash = hashKnown ? ((PieceTableText) document).contentHash() : 0;
+        }
+
+        // A state no edit reaches
+        private SavePoint(ChangeTracker tracker) {
+            this.tracker = tracker;
+            this.state = -1;
+            this.length = -1;
+            this.hashKnown = false;
+            this.hash = 0;
+        }
+
+    }
+
+    private class TrackedEdit implements UndoableEdit {
+
+        private final UndoableEdit edit;
+        private final long before;
+        private final long after;
+
+        TrackedEdit(UndoableEdit edit, long before, long after) {
+            this.edit = edit;
+            this.before = before;
+            this.after = after;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            edit.undo();
+            state = before;
+        }
+
+        @Override
+        public boolean canUndo() {
+            return edit.canUndo();
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            edit.redo();
+            state = after;
+        }
+
+        @Override
+        public boolean canRedo() {
+            return edit.canRedo();
+        }
+
+        @Override
+        public void die() {
+            edit.die();
+        }
+
+        @Override
+        public boolean addEdit(UndoableEdit anEdit) {
+            return false;
+        }
+
+        @Override
+        public boolean replaceEdit(UndoableEdit anEdit) {
+            return false;
+        }
+
+        @Override
+        public boolean isSignificant() {
+            return edit.isSignificant();
+        }
+
+        @Override
+        public String getPresentationName() {
+            return edit.getPresentationName();
+        }
+
+        @Override
+        public String getUndoPresentationName() {
+            return edit.getUndoPresentationName();
+        }
+
+        @Override
+        public String getRedoPresentationName() {
+            return edit.getRedoPresentationName();
+        }
+
+    }
+
+}
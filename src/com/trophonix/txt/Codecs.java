@@ -0,0 +1,35 @@
+package com.trophonix.txt;
+
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-thread charset coders. Creating a decoder means building its tables, so
+ * worker threads keep theirs around between files.
+ */
+class Codecs {
+
+    private static final ThreadLocal<Map<Charset, CharsetDecoder>> DECODERS = ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<Map<Charset, CharsetEncoder>> ENCODERS = ThreadLocal.withInitial(HashMap::new);
+
+    private Codecs() {}
+
+    static CharsetDecoder decoder(Charset charset) {
+        CharsetDecoder decoder = DECODERS.get().computeIfAbsent(charset, c -> c.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE));
+        return decoder.reset();
+    }
+
+    static CharsetEncoder encoder(Charset charset) {
+        CharsetEncoder encoder = ENCODERS.get().computeIfAbsent(charset, c -> c.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE));
+        return encoder.reset();
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.trophonix.txt;
+
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import java.awt.*;
+import java.awt.event.InvocationEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+
+/**
+ * Counts how busy the event thread is: every event it dispatches, the
+ * invokeLater and timer calls among them, and the change notifications and
+ * UI updates from {@link ChangeNotifier}. View > Diagnostics shows them per
+ * second, along with how long startup took. Events are only counted from
+ * the first time the dialog is opened, so until then every event goes
+ * straight to the system queue. Everything is counted on the event thread.
+ */
+public class Diagnostics {
+
+    private static final int SAMPLE_MILLIS = 1000;
+
+    private long events;
+    private long invocations;
+    private long changes;
+    private long updates;
+
+    private boolean installed;
+    private JDialog dialog;
+
+    /**
+     * Puts a queue in front of the system event queue that counts what it
+     * dispatches.
+     */
+    private void install() {
+        installed = true;
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(new EventQueue() {
+            @Override
+            protected void dispatchEvent(AWTEvent event) {
+                events++;
+                if (event instanceof InvocationEvent) invocations++;
+                super.dispatchEvent(event);
+            }
+        });
+    }
+
+    void changeReported() {
+        changes++;
+    }
+
+    void updateRun() {
+        updates++;
+    }
+
+    void show(Frame owner) {
+        if (dialog != null) {
+            dialog.toFront();
+            return;
+        }
+        if (!installed) install();
+        JLabel label = new JLabel();
+        label.setBorder(new EmptyBorder(10, 15, 10, 15));
+        label.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        long[] last = {events, invocations, changes, updates, System.nanoTime()};
+        Timer sampler = new Timer(SAMPLE_MILLIS, event -> {
+            long now = System.nanoTime();
+            double seconds = (now - last[4]) / 1e9;
+            String startup = StartupProfiler.summary();
+            label.setText(String.format("<html>Events dispatched: %.0f/s<br>invokeLater and timers: %.0f/s"
+                            + "<br>Change notifications: %.0f/s<br>UI updates: %.0f/s<br><br>Startup: %s</html>",
+                    (events - last[0]) / seconds, (invocations - last[1]) / seconds,
+                    (changes - last[2]) / seconds, (updates - last[3]) / seconds,
+                    startup != null ? startup : "not measured"));
+            last[0] = events;
+            last[1] = invocations;
+            last[2] = changes;
+            last[3] = updates;
+            last[4] = now;
+        });
+        dialog = new JDialog(owner, "Diagnostics");
+        dialog.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+        dialog.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent event) {
+                sampler.stop();
+                dialog = null;
+            }
+        });
+        label.setPreferredSize(new Dimension(320, 200));
+        dialog.add(label);
+        label.setText("Measuring...");
+        dialog.pack();
+        dialog.setLocationRelativeTo(owner);
+        dialog.setVisible(true);
+        sampler.start();
+    }
+
+}
@@ -0,0 +1,239 @@
+package com.trophonix.txt;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.UndoableEditEvent;
+import javax.swing.text.BadLocationException;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.CompoundEdit;
+import javax.swing.undo.UndoManager;
+import javax.swing.undo.UndoableEdit;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Undo history for the editor. Keystrokes are merged into one step per word
+ * or line, edits made between {@link #beginGroup()} and {@link #endGroup()}
+ * become a single step, and the oldest steps are dropped once the estimated
+ * size of the history goes over its byte budget.
+ */
+public class EditHistory extends UndoManager {
+
+    static final long DEFAULT_BUDGET = 64L << 20;
+
+    // Rough cost of the event, element edits and piece table undo behind every edit
+    private static final int EDIT_OVERHEAD = 256;
+
+    private ChangeTracker tracker;
+    private long budget = DEFAULT_BUDGET;
+    private long bytes;
+
+    private CompoundEdit group;
+    private long groupBytes;
+
+    EditHistory(ChangeTracker tracker) {
+        this.tracker = tracker;
+        setLimit(Integer.MAX_VALUE);
+    }
+
+    void setTracker(ChangeTracker tracker) {
+        this.tracker = tracker;
+    }
+
+    void setBudget(long budget) {
+        this.budget = budget;
+        trimForBudget();
+    }
+
+    long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Estimated heap kept alive by the history.
+     */
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public void undoableEditHappened(UndoableEditEvent event) {
+        UndoableEdit edit = event.getEdit();
+        long cost = cost(edit);
+        if (group != null) {
+            group.addEdit(edit);
+            groupBytes += cost;
+            return;
+        }
+        addEdit(new Step(tracker.track(edit), cost, edit));
+    }
+
+    /**
+     * Collects every following edit into one step until {@link #endGroup()}.
+     */
+    void beginGroup() {
+        group = new CompoundEdit();
+        groupBytes = 0;
+    }
+
+    void endGroup() {
+        CompoundEdit edit = group;
+        group = null;
+        edit.end();
+        if (edit.isSignificant()) addEdit(new Step(tracker.track(edit), groupBytes, null));
+    }
+
+    /**
+     * Stops the last step from taking more keystrokes, so the document state
+     * before the next one stays reachable by undo. Called at save points.
+     */
+    synchronized void breakCoalescing() {
+        UndoableEdit last = lastEdit();
+        if (last instanceof Step) ((Step) last).open = false;
+    }
+
+    @Override
+    public synchronized boolean addEdit(UndoableEdit edit) {
+        boolean added = super.addEdit(edit);
+        if (edit instanceof Step) {
+            // Merged or not, the history grew by the step's size
+            bytes += ((Step) edit).bytes;
+            int size = edits.size();
+            if (size > 1 && edits.get(size - 1) == edit && edits.get(size - 2) instanceof Step) {
+                ((Step) edits.get(size - 2)).open = false;
+            }
+        }
+        trimForBudget();
+        return added;
+    }
+
+    @Override
+    public synchronized void discardAllEdits() {
+        super.discardAllEdits();
+        bytes = 0;
+    }
+
+    @Override
+    protected void trimEdits(int from, int to) {
+        for (int i = from; i <= to && i < edits.size(); i++) {
+            UndoableEdit edit = edits.get(i);
+            if (edit instanceof Step) bytes -= ((Step) edit).bytes;
+        }
+        super.trimEdits(from, to);
+    }
+
+    private synchronized void trimForBudget() {
+        // The newest step always stays, however big it is
+        int drop = 0;
+        long remaining = bytes;
+        while (remaining > budget && drop < edits.size() - 1) {
+            UndoableEdit edit = edits.get(drop++);
+            if (edit instanceof Step) remaining -= ((Step) edit).bytes;
+        }
+        if (drop > 0) trimEdits(0, drop - 1);
+    }
+
+    private static long cost(UndoableEdit edit) {
+        if (edit instanceof DocumentEvent) {
+            DocumentEvent event = (DocumentEvent) edit;
+            long chars = event.getType() == DocumentEvent.EventType.CHANGE ? 0 : event.getLength();
+            return EDIT_OVERHEAD + chars * 2;
+        }
+        return EDIT_OVERHEAD;
+    }
+
+    private enum Kind {
+        TYPED, DELETED, OTHER
+    }
+
+    /**
+     * One entry in the history: a single tracked edit, or a run of keystrokes
+     * merged while the step is still open.
+     */
+    private static class Step extends AbstractUndoableEdit {
+
+        private final List<UndoableEdit> edits = new ArrayList<>(1);
+        private final Kind kind;
+        private long bytes;
+        private boolean open = true;
+
+        // For typing, where the next keystroke has to land to be merged
+        private int next;
+        private char last;
+
+        Step(UndoableEdit tracked, long bytes, UndoableEdit edit) {
+            edits.add(tracked);
+            this.bytes = bytes;
+            Kind kind = Kind.OTHER;
+            if (edit instanceof DocumentEvent && ((DocumentEvent) edit).getLength() == 1) {
+                DocumentEvent event = (DocumentEvent) edit;
+                if (event.getType() == DocumentEvent.EventType.INSERT) {
+                    try {
+                        last = event.getDocument().getText(event.getOffset(), 1).charAt(0);
+                        next = event.getOffset() + 1;
+                        kind = Kind.TYPED;
+                    } catch (BadLocationException ignored) {}
+                } else if (event.getType() == DocumentEvent.EventType.REMOVE) {
+                    next = event.getOffset();
+                    kind = Kind.DELETED;
+                }
+            }
+            this.kind = kind;
+        }
+
+        @Override
+        public boolean addEdit(UndoableEdit anEdit) {
+            if (!open || !(anEdit instanceof Step)) return false;
+            Step step = (Step) anEdit;
+            if (step.kind != kind || kind == Kind.OTHER) return false;
+            if (kind == Kind.TYPED) {
+                // A new word or a new line starts a new step
+                if (step.next != next + 1 || last == '\n'
+                        || Character.isWhitespace(last) && !Character.isWhitespace(step.last)) return false;
+                last = step.last;
+            } else if (step.next != next && step.next != next - 1) {
+                // Delete keeps the offset, backspace moves it back by one
+                return false;
+            }
+            next = step.next;
+            edits.addAll(step.edits);
+            bytes += step.bytes;
+            return true;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            open = false;
+            for (int i = edits.size() - 1; i >= 0; i--) edits.get(i).undo();
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            for (UndoableEdit edit : edits) edit.redo();
+        }
+
+        @Override
+        public void die() {
+            super.die();
+            for (int i = edits.size() - 1; i >= 0; i--) edits.get(i).die();
+        }
+
+        @Override
+        public boolean isSignificant() {
+            for (UndoableEdit edit : edits) {
+                if (edit.isSignificant()) return true;
+            }
+            return false;
+        }
+
+        @Override
+        public String getPresentationName() {
+            return edits.get(edits.size() - 1).getPresentationName();
+        }
+
+    }
+
+}
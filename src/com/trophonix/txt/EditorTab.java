@@ -0,0 +1,145 @@
+package com.trophonix.txt;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.File;
+
+/**
+ * One open document and everything that goes with it: its file, undo
+ * history, recovery journal, find results and where it was scrolled to. The
+ * editor has one text pane, so the tab that's showing works from the editor's
+ * own fields, and they're put back here when another tab is selected.
+ * <p>
+ * Inactive tabs give back memory when {@link MemoryManager} asks: first their
+ * caches and most of their undo history, then the document itself, which is
+ * loaded again from its file, or from a snapshot in its journal if it had
+ * unsaved changes.
+ */
+public class EditorTab {
+
+    // Undo history left to a tab once it's compacted
+    static final long COMPACT_UNDO_BUDGET = 1L << 20;
+
+    final int slot;
+    final RecoveryJournal journal;
+    // Stands for the tab in the tab strip
+    final JComponent placeholder = new JPanel();
+
+    File file;
+    String titleName = "New File";
+    // Null while unloaded
+    PieceTableText document;
+    LineIndex lineIndex;
+    SyntaxHighlighter syntaxHighlighter;
+    ChangeTracker changeTracker = new ChangeTracker();
+    EditHistory undoManager = new EditHistory(changeTracker);
+    LargeFileViewer largeFileViewer;
+    // Unsaved work from the last session, waiting for the tab to be shown
+    RecoveryJournal.Recovery pendingRecovery;
+
+    int dot;
+    int mark;
+    Point viewPosition = new Point();
+
+    String lastFind;
+    boolean lastFindIgnoreCase;
+    int findScrollIndex = -1;
+    MatchList findMatches = new MatchList();
+    FindEngine.Query findQuery;
+    MatchIndex matchIndex;
+    boolean findPartial;
+    int findAnchor;
+
+    long lastUsed = System.nanoTime();
+    boolean compacted;
+    // Unloaded with unsaved changes, which are in the journal's snapshot
+    boolean spilled;
+    // Length of the text that was spilled
+    int spilledLength;
+
+    EditorTab(int slot, RecoveryJournal journal, PieceTableText document) {
+        this.slot = slot;
+        this.journal = journal;
+        this.document = document;
+        placeholder.setPreferredSize(new Dimension());
+        if (document != null) changeTracker.markSaved(document);
+    }
+
+    boolean isLoaded() {
+        return document != null;
+    }
+
+    boolean isDirty() {
+        if (pendingRecovery != null) return true;
+        return document != null ? changeTracker.isDirty(document) : spilled;
+    }
+
+    /**
+     * Drops what can be rebuilt when the tab is shown again: the line index,
+     * syntax states and find results, and all but the newest undo steps.
+     */
+    void compact() {
+        if (compacted || document == null) return;
+        undoManager.setBudget(COMPACT_UNDO_BUDGET);
+        if (lineIndex != null) lineIndex.detach();
+        lineIndex = null;
+        if (syntaxHighlighter != null) syntaxHighlighter.detach();
+        syntaxHighlighter = null;
+        dropMatches();
+        compacted = true;
+    }
+
+    /**
+     * Forgets the matches of the last search but not the search, so it's run
+     * again from the current match when the tab is shown.
+     */
+    void dropMatches() {
+        if (findQuery == null) return;
+        if (findScrollIndex >= 0 && findScrollIndex < findMatches.size()) findAnchor = findMatches.start(findScrollIndex);
+        if (matchIndex != null) matchIndex.detach();
+        matchIndex = null;
+        findMatches = new MatchList();
+        findScrollIndex = -1;
+        findPartial = false;
+    }
+
+    /**
+     * Lets go of the document. Unsaved changes are written to a snapshot in
+     * the journal first, and if that fails the document stays; otherwise the
+     * file is loaded again later. The undo history goes with the document,
+     * since its edits point into it.
+     */
+    boolean unload() {
+        if (document == null || largeFileViewer != null) return false;
+        boolean dirty = changeTracker.isDirty(document);
+        if (!dirty && (file == null || !file.exists())) return false;
+        if (dirty) {
+            journal.start(document, file, false);
+            journal.sync();
+            // Left logging, as it was, in case the disk comes back
+            if (!journal.isStarted()) return false;
+            spilledLength = document.getLength();
+        }
+        compact();
+        journal.stop();
+        spilled = dirty;
+        undoManager.discardAllEdits();
+        document = null;
+        return true;
+    }
+
+    void close() {
+        journal.discard();
+        if (largeFileViewer != null) largeFileViewer.close();
+        largeFileViewer = null;
+        if (lineIndex != null) lineIndex.detach();
+        lineIndex = null;
+        if (syntaxHighlighter != null) syntaxHighlighter.detach();
+        syntaxHighlighter = null;
+        if (matchIndex != null) matchIndex.detach();
+        matchIndex = null;
+        undoManager.discardAllEdits();
+        document = null;
+    }
+
+}
@@ -0,0 +1,107 @@
+package com.trophonix.txt;
+
+import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultEditorKit;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a file into a fresh {@link PieceTableText} on a worker thread. The
+ * document isn't attached to anything while it's being built, so the editor
+ * keeps running until {@code done()} swaps it in.
+ */
+public class FileLoader extends SwingWorker<PieceTableText, Void> {
+
+    static final String CHARSET_PROPERTY = "charset";
+    static final Charset DEFAULT_CHARSET = StandardCharsets.UTF_8;
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final File file;
+    private final Charset charset;
+    private final boolean styled;
+
+    private String lineSeparator;
+    private boolean lastWasCR;
+
+    FileLoader(File file, Charset charset, boolean styled) {
+        this.file = file;
+        this.charset = charset;
+        this.styled = styled;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    @Override
+    protected PieceTableText doInBackground() throws IOException, BadLocationException {
+        PieceTableText document = styled ? new PieceTableDocument() : new PlainTextDocument();
+        document.putProperty(CHARSET_PROPERTY, charset);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = Math.max(channel.size(), 1);
+            CharsetDecoder decoder = Codecs.decoder(charset);
+            ByteBuffer bytes = ByteBuffer.allocateDirect(CHUNK_SIZE);
+            CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE);
+            boolean endOfInput = false;
+            while (!endOfInput) {
+                if (isCancelled()) return null;
+                endOfInput = channel.read(bytes) == -1;
+                bytes.flip();
+                CoderResult result;
+                while ((result = decoder.decode(bytes, chars, endOfInput)).isOverflow()) {
+                    chars = flush(document, chars);
+                }
+                if (result.isError()) result.throwException();
+                bytes.compact();
+                if (!chars.hasRemaining()) chars = flush(document, chars);
+                // The file may have grown since it was opened, a log still being written for one
+                setProgress((int) Math.min(100, channel.position() * 100 / size));
+            }
+            while (decoder.flush(chars).isOverflow()) chars = flush(document, chars);
+            flush(document, chars);
+        }
+        if (lastWasCR && lineSeparator == null) lineSeparator = "\r";
+        if (lineSeparator != null) document.putProperty(DefaultEditorKit.EndOfLineStringProperty, lineSeparator);
+        return document;
+    }
+
+    /**
+     * Hands the decoded chunk to the document as its own piece, turning \r\n
+     * and \r into \n the way DefaultEditorKit does, and starts a new chunk.
+     */
+    private CharBuffer flush(PieceTableText document, CharBuffer chars) throws BadLocationException {
+        char[] chunk = chars.array();
+        int read = chars.position();
+        int length = 0;
+        for (int i = 0; i < read; i++) {
+            char c = chunk[i];
+            if (c == '\r') {
+                chunk[length++] = '\n';
+            } else if (c == '\n' && lastWasCR) {
+                if (lineSeparator == null) lineSeparator = "\r\n";
+            } else {
+                if (c == '\n' && lineSeparator == null) lineSeparator = "\n";
+                chunk[length++] = c;
+            }
+            if (lastWasCR && c != '\n' && lineSeparator == null) lineSeparator = "\r";
+            lastWasCR = c == '\r';
+        }
+        if (length == 0) {
+            chars.clear();
+            return chars;
+        }
+        document.insertChunk(document.getLength(), chunk, length);
+        return CharBuffer.allocate(CHUNK_SIZE);
+    }
+
+}
@@ -0,0 +1,179 @@
+package com.trophonix.txt;
+
+import javax.swing.*;
+import javax.swing.text.Segment;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a {@link TextSnapshot} to disk on a worker thread. The text goes to a
+ * temporary file next to the target, is forced to the disk, and then renamed
+ * over the target, so a crash leaves either the old file or the new one.
+ */
+public class FileSaver extends SwingWorker<Long, Void> {
+
+    // One thread, so saves of the same file finish in the order they were started
+    private static final ExecutorService EXECUTOR;
+
+    static {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        executor.allowCoreThreadTimeOut(true);
+        EXECUTOR = executor;
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final TextSnapshot text;
+    private final File file;
+    private final Charset charset;
+    private final String lineSeparator;
+
+    private long started;
+    private long finished;
+
+    FileSaver(TextSnapshot text, File file, Charset charset, String lineSeparator) {
+        this.text = text;
+        this.file = file;
+        this.charset = charset;
+        this.lineSeparator = lineSeparator;
+    }
+
+    void start() {
+        started = System.nanoTime();
+        EXECUTOR.execute(this);
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    long getElapsedNanos() {
+        return finished - started;
+    }
+
+    @Override
+    protected Long doInBackground() throws IOException {
+        Path target = file.toPath();
+        if (Files.exists(target)) target = target.toRealPath();
+        Path temp = null;
+        FileChannel channel = null;
+        // Opened plainly rather than with createTempFile, so a new file gets the umask's permissions, not 0600
+        while (channel == null) {
+            temp = target.toAbsolutePath().getParent().resolve(
+                    "." + target.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+            try {
+                channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            } catch (FileAlreadyExistsException ex) {
+                // Taken, try another name
+            }
+        }
+        long written = 0;
+        try {
+            try (FileChannel out = channel) {
+                written = write(out);
+                out.force(true);
+            }
+            if (isCancelled()) return written;
+            copyPermissions(target, temp);
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+            finished = System.nanoTime();
+        }
+        return written;
+    }
+
+    private long write(FileChannel channel) throws IOException {
+        CharsetEncoder encoder = Codecs.encoder(charset);
+        ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        CharBuffer separator = CharBuffer.wrap(lineSeparator);
+        boolean convert = !lineSeparator.equals("\n");
+        Segment segment = new Segment();
+        segment.setPartialReturn(true);
+        int length = text.length();
+        int offset = 0;
+        long written = 0;
+        while (offset < length) {
+            if (isCancelled()) return written;
+            text.getChars(offset, length - offset, segment);
+            int end = segment.offset + segment.count;
+            if (Character.isHighSurrogate(segment.array[end - 1]) && offset + segment.count < length) {
+                // Keep surrogate pairs that straddle two pieces in one encoder call
+                if (--end == segment.offset) {
+                    CharBuffer pair = CharBuffer.wrap(new char[]{segment.array[end], text.charAt(offset + 1)});
+                    written += encode(encoder, pair, bytes, channel);
+                    offset += 2;
+                    continue;
+                }
+            }
+            int runStart = segment.offset;
+            for (int i = segment.offset; convert && i < end; i++) {
+                if (segment.array[i] != '\n') continue;
+                written += encode(encoder, CharBuffer.wrap(segment.array, runStart, i - runStart), bytes, channel);
+                separator.rewind();
+                written += encode(encoder, separator, bytes, channel);
+                runStart = i + 1;
+            }
+            written += encode(encoder, CharBuffer.wrap(segment.array, runStart, end - runStart), bytes, channel);
+            offset += end - segment.offset;
+            setProgress((int) ((long) offset * 100 / length));
+        }
+        encoder.encode(CharBuffer.allocate(0), bytes, true);
+        while (encoder.flush(bytes).isOverflow()) written += drain(bytes, channel);
+        written += drain(bytes, channel);
+        return written;
+    }
+
+    private static long encode(CharsetEncoder encoder, CharBuffer chars, ByteBuffer bytes, FileChannel channel) throws IOException {
+        long written = 0;
+        CoderResult result;
+        while ((result = encoder.encode(chars, bytes, false)).isOverflow()) {
+            written += drain(bytes, channel);
+        }
+        if (result.isError()) result.throwException();
+        return written;
+    }
+
+    private static long drain(ByteBuffer bytes, FileChannel channel) throws IOException {
+        bytes.flip();
+        long written = 0;
+        while (bytes.hasRemaining()) written += channel.write(bytes);
+        bytes.clear();
+        return written;
+    }
+
+    private static void copyPermissions(Path from, Path to) {
+        try {
+            PosixFileAttributeView source = Files.getFileAttributeView(from, PosixFileAttributeView.class);
+            PosixFileAttributeView dest = Files.getFileAttributeView(to, PosixFileAttributeView.class);
+            if (Files.exists(from) && source != null && dest != null) {
+                dest.setPermissions(source.readAttributes().permissions());
+            }
+        } catch (IOException | UnsupportedOperationException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+}
@@ -0,0 +1,370 @@
+package com.trophonix.txt;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Compiles and runs find queries against any {@link CharSequence}, usually a
+ * {@link TextSnapshot}, so searching never copies the document. Queries
+ * without regex syntax skip java.util.regex and use Boyer-Moore-Horspool.
+ * Big texts are split into chunks that are searched in parallel.
+ */
+public class FindEngine {
+
+    private static final int CACHE_SIZE = 32;
+    private static final String REGEX_CHARS = "\\^$.|?*+()[]{}";
+    // Escapes and constructs that can match a line break or depend on the previous match
+    private static final String[] CROSSES_LINES = {
+            "\\n", "\\r", "\\s", "\\R", "\\v", "\\W", "\\D", "\\H", "\\G", "\\X", "\\N",
+            "\\x", "\\u", "\\0", "\\c", "\\p", "\\P", "\\Q", "[^", "\n", "\r"
+    };
+
+    static final int CHUNK_SIZE = 1 << 20;
+
+    static final long DEFAULT_TIME_LIMIT = 10_000;
+    // Char reads a regex may make per char searched before it counts as runaway
+    private static final int STEPS_PER_CHAR = 1000;
+    private static final long MIN_STEPS = 10_000_000;
+
+    private volatile long timeLimit = DEFAULT_TIME_LIMIT;
+
+    private final Map<Key, Query> cache = new LinkedHashMap<Key, Query>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Query> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    synchronized Query compile(String query, boolean ignoreCase) throws PatternSyntaxException {
+        Key key = new Key(query, ignoreCase);
+        Query compiled = cache.get(key);
+        if (compiled == null) {
+            compiled = isLiteral(query) ? new LiteralQuery(query, ignoreCase) : new RegexQuery(query, ignoreCase);
+            cache.put(key, compiled);
+        }
+        return compiled;
+    }
+
+    MatchList findAll(Query query, CharSequence text) {
+        MatchList matches = new MatchList();
+        query.find(text, 0, text.length(), matches);
+        return matches;
+    }
+
+    /**
+     * Finds every match and hands them to {@code sink} in offset order, one
+     * chunk at a time, so the first hits can be shown before the search ends.
+     * Runs on the calling thread, which should not be the EDT.
+     *
+     * @throws SearchStoppedException if a regex ran out of time or steps, or
+     *         was cancelled in the middle of a match. Whatever was found before
+     *         that has already gone to {@code sink}.
+     */
+    void search(Query query, CharSequence text, BooleanSupplier cancelled, Consumer<MatchList> sink) {
+        int length = text.length();
+        long deadline = System.nanoTime() + timeLimit * 1_000_000L;
+        if (!query.isChunkable() || length <= CHUNK_SIZE) {
+            MatchList matches = new MatchList();
+            try {
+                query.find(guard(query, text, cancelled, deadline, length), 0, length, matches);
+            } finally {
+                if (!matches.isEmpty()) sink.accept(matches);
+            }
+            return;
+        }
+        List<ForkJoinTask<MatchList>> tasks = new ArrayList<>();
+        List<Integer> ends = new ArrayList<>();
+        for (int from = 0; from < length; ) {
+            int to = query.chunkEnd(text, Math.min(from + CHUNK_SIZE, length));
+            int chunkFrom = from;
+            CharSequence view = text instanceof TextSnapshot ? ((TextSnapshot) text).view() : text;
+            tasks.add(ForkJoinPool.commonPool().submit(() -> {
+                MatchList matches = new MatchList();
+                query.find(guard(query, view, cancelled, deadline, to - chunkFrom), chunkFrom, to, matches);
+                return matches;
+            }));
+            ends.add(to);
+            from = to;
+        }
+        int lastEnd = 0;
+        int i = 0;
+        try {
+            for (; i < tasks.size(); i++) {
+                if (cancelled.getAsBoolean()) return;
+                MatchList matches = tasks.get(i).join();
+                if (!matches.isEmpty() && matches.start(0) < lastEnd) {
+                    // The previous chunk's last match runs into this one, so this
+                    // chunk has to be searched again from where a sequential scan would
+                    int from = lastEnd, to = ends.get(i);
+                    matches = new MatchList();
+                    query.find(guard(query, text, cancelled, deadline, to - from), from, to, matches);
+                }
+                if (!matches.isEmpty()) {
+                    lastEnd = matches.end(matches.size() - 1);
+                    sink.accept(matches);
+                }
+            }
+        } finally {
+            for (; i < tasks.size(); i++) tasks.get(i).cancel(false);
+        }
+    }
+
+    void setTimeLimit(long millis) {
+        timeLimit = millis;
+    }
+
+    /**
+     * Wraps the text a regex runs over so a runaway match can be stopped.
+     * Literal queries scan linearly and get the text as it is.
+     */
+    static CharSequence guard(Query query, CharSequence text, BooleanSupplier cancelled, long deadline, int chars) {
+        if (!(query instanceof RegexQuery)) return text;
+        return new GuardedText(text, cancelled, deadline, MIN_STEPS + (long) STEPS_PER_CHAR * chars);
+    }
+
+    static boolean isLiteral(String query) {
+        for (int i = 0; i < query.length(); i++) {
+            if (REGEX_CHARS.indexOf(query.charAt(i)) >= 0) return false;
+        }
+        return true;
+    }
+
+    abstract static class Query {
+
+        final String query;
+        final boolean ignoreCase;
+
+        Query(String query, boolean ignoreCase) {
+            this.query = query;
+            this.ignoreCase = ignoreCase;
+        }
+
+        /**
+         * Adds the matches that start in {@code [from, to)} to {@code matches},
+         * in order and without overlaps, like repeated Matcher.find() calls.
+         */
+        abstract void find(CharSequence text, int from, int to, MatchList matches);
+
+        /**
+         * Whether matches have a bounded length, so chunks can be searched
+         * independently without scanning the rest of the text.
+         */
+        abstract boolean isChunkable();
+
+        /**
+         * Moves a chunk boundary to where this query's matches can't span it.
+         */
+        int chunkEnd(CharSequence text, int end) {
+            return end;
+        }
+
+    }
+
+    static class LiteralQuery extends Query {
+
+        private final char[] pattern;
+        private final int[] shifts = new int[256];
+
+        LiteralQuery(String query, boolean ignoreCase) {
+            super(query, ignoreCase);
+            pattern = query.toCharArray();
+            int last = pattern.length - 1;
+            for (int i = 0; i < pattern.length; i++) pattern[i] = fold(pattern[i]);
+            java.util.Arrays.fill(shifts, pattern.length);
+            // Chars that share a bucket keep the smallest shift, which is always safe
+            for (int i = 0; i < last; i++) shifts[pattern[i] & 0xFF] = last - i;
+        }
+
+        @Override
+        boolean isChunkable() {
+            return true;
+        }
+
+        /**
+         * Reads up to {@code length - 1} chars past {@code to}, so chunks
+         * overlap by the longest possible match.
+         */
+        @Override
+        void find(CharSequence text, int from, int to, MatchList matches) {
+            int length = pattern.length;
+            int last = length - 1;
+            int limit = Math.min(to + last, text.length()) - length;
+            int i = from;
+            while (i <= limit) {
+                int j = last;
+                while (j >= 0 && fold(text.charAt(i + j)) == pattern[j]) j--;
+                if (j < 0) {
+                    matches.add(i, i + length);
+                    i += length;
+                } else {
+                    i += shifts[fold(text.charAt(i + last)) & 0xFF];
+                }
+            }
+        }
+
+        // Same folding as Pattern.CASE_INSENSITIVE, which only covers US-ASCII
+        private char fold(char c) {
+            return ignoreCase && c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+
+    }
+
+    static class RegexQuery extends Query {
+
+        final Pattern pattern;
+        // Matches never contain a line break, so they end on the line they start on
+        private final boolean singleLine;
+
+        RegexQuery(String query, boolean ignoreCase) {
+            super(query, ignoreCase);
+            pattern = ignoreCase ? Pattern.compile(query, Pattern.CASE_INSENSITIVE) : Pattern.compile(query);
+            singleLine = !crossesLines(query);
+        }
+
+        @Override
+        boolean isChunkable() {
+            return singleLine;
+        }
+
+        @Override
+        int chunkEnd(CharSequence text, int end) {
+            while (end > 0 && end < text.length() && text.charAt(end - 1) != '\n') end++;
+            return end;
+        }
+
+        @Override
+        void find(CharSequence text, int from, int to, MatchList matches) {
+            Matcher matcher = pattern.matcher(text);
+            matcher.useTransparentBounds(true);
+            matcher.useAnchoringBounds(false);
+            matcher.region(from, singleLine ? chunkEnd(text, to) : text.length());
+            // An empty match can sit right at the end of the text
+            int limit = to == text.length() ? to + 1 : to;
+            while (matcher.find() && matcher.start() < limit) {
+                matches.add(matcher.start(), matcher.end());
+            }
+        }
+
+    }
+
+    /**
+     * Conservative check for patterns whose matches might contain a line
+     * break. Inline flags are included because (?s) lets dots match one.
+     */
+    static boolean crossesLines(String regex) {
+        for (String construct : CROSSES_LINES) {
+            if (regex.contains(construct)) return true;
+        }
+        for (int i = regex.indexOf("(?"); i >= 0; i = regex.indexOf("(?", i + 1)) {
+            if (i > 0 && regex.charAt(i - 1) == '\\') continue;
+            char next = i + 2 < regex.length() ? regex.charAt(i + 2) : ')';
+            if (next != ':' && next != '=' && next != '!' && next != '<') return true;
+        }
+        return false;
+    }
+
+    /**
+     * Thrown out of a regex search that was stopped part way.
+     */
+    static class SearchStoppedException extends RuntimeException {
+
+        SearchStoppedException(String message) {
+            super(message);
+        }
+
+    }
+
+    /**
+     * Counts the chars a Matcher reads. Backtracking shows up as reads, and
+     * reads are the only place a running Matcher can be interrupted, so every
+     * few thousand of them the search checks for cancellation, its deadline
+     * and its step budget.
+     */
+    private static class GuardedText implements CharSequence {
+
+        private static final int CHECK_INTERVAL = 4096;
+
+        private final CharSequence text;
+        private final BooleanSupplier cancelled;
+        private final long deadline;
+        private final long maxSteps;
+
+        private long steps;
+        private int untilCheck = CHECK_INTERVAL;
+
+        GuardedText(CharSequence text, BooleanSupplier cancelled, long deadline, long maxSteps) {
+            this.text = text;
+            this.cancelled = cancelled;
+            this.deadline = deadline;
+            this.maxSteps = maxSteps;
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (--untilCheck == 0) check();
+            return text.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return text.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return text.toString();
+        }
+
+        private void check() {
+            untilCheck = CHECK_INTERVAL;
+            steps += CHECK_INTERVAL;
+            if (cancelled.getAsBoolean() || Thread.currentThread().isInterrupted())
+                throw new SearchStoppedException("cancelled");
+            if (System.nanoTime() - deadline > 0)
+                throw new SearchStoppedException("took too long");
+            if (steps > maxSteps)
+                throw new SearchStoppedException("too much backtracking");
+        }
+
+    }
+
+    private static class Key {
+
+        final String query;
+        final boolean ignoreCase;
+
+        Key(String query, boolean ignoreCase) {
+            this.query = query;
+            this.ignoreCase = ignoreCase;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return ignoreCase == key.ignoreCase && query.equals(key.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(query, ignoreCase);
+        }
+
+    }
+
+}
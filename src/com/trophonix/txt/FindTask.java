@@ -0,0 +1,68 @@
+package com.trophonix.txt;
+
+import javax.swing.*;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Runs a find query off the EDT. Matches are published in offset order as
+ * each chunk finishes, and the result is the total number of matches.
+ */
+public class FindTask extends SwingWorker<Integer, MatchList> {
+
+    private final FindEngine engine;
+    private final FindEngine.Query query;
+    private final CharSequence text;
+    private final Consumer<MatchList> results;
+
+    private long started;
+    private long finished;
+    private volatile String stopReason;
+
+    FindTask(FindEngine engine, FindEngine.Query query, CharSequence text, Consumer<MatchList> results) {
+        this.engine = engine;
+        this.query = query;
+        this.text = text;
+        this.results = results;
+    }
+
+    void start() {
+        started = System.nanoTime();
+        execute();
+    }
+
+    long getElapsedNanos() {
+        return finished - started;
+    }
+
+    /**
+     * Why the search gave up early with only part of the matches, or null.
+     */
+    String getStopReason() {
+        return stopReason;
+    }
+
+    @Override
+    protected Integer doInBackground() {
+        int[] count = new int[1];
+        if (text.length() == 0) return 0;
+        try {
+            engine.search(query, text, this::isCancelled, matches -> {
+                count[0] += matches.size();
+                setProgress((int) (100L * matches.end(matches.size() - 1) / Math.max(text.length(), 1)));
+                publish(matches);
+            });
+        } catch (FindEngine.SearchStoppedException ex) {
+            stopReason = ex.getMessage();
+        }
+        finished = System.nanoTime();
+        return count[0];
+    }
+
+    @Override
+    protected void process(List<MatchList> chunks) {
+        if (isCancelled()) return;
+        for (MatchList matches : chunks) results.accept(matches);
+    }
+
+}
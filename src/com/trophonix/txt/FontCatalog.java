@@ -0,0 +1,152 @@
+package com.trophonix.txt;
+
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The installed font families, and the fonts made from them. Asking the
+ * graphics environment for the families can take hundreds of milliseconds, so
+ * it's done once, on a background thread started with the editor, and the
+ * list is kept in fonts.cache for the next run. The cached list is used as
+ * long as its fingerprint, made from the Java version, the locale and the
+ * modification times of the font directories and everything under them,
+ * still matches.
+ * <p>
+ * Fonts are kept by family, style and size, so the font dialog's preview
+ * reuses them rather than making a new one for every selection.
+ */
+public class FontCatalog {
+
+    private static final int CACHED_SIZES = 128;
+    // ~ is the home directory and $NAME an environment variable; a directory
+    // under a variable that isn't set is left out
+    private static final String[] FONT_DIRECTORIES = {
+            "/usr/share/fonts", "/usr/local/share/fonts", "~/.fonts", "~/.local/share/fonts",
+            "/Library/Fonts", "/System/Library/Fonts", "~/Library/Fonts",
+            "$WINDIR/Fonts", "$LOCALAPPDATA/Microsoft/Windows/Fonts"};
+
+    private final File cacheFile;
+    private final FutureTask<String[]> families = new FutureTask<>(this::loadFamilies);
+    // family -> style -> size; only touched on the event thread
+    private final Map<String, Font[][]> fonts = new HashMap<>();
+
+    FontCatalog(File cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    void start() {
+        Thread loader = new Thread(families, "Font catalog");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * The family names, sorted, waiting for them if they're still loading.
+     */
+    String[] families() {
+        try {
+            return families.get();
+        } catch (InterruptedException | ExecutionException ex) {
+            ex.printStackTrace();
+            return GraphicsEnvironment.getLocalGraphicsEnvironment().getAvailableFontFamilyNames();
+        }
+    }
+
+    Font font(String family, int style, int size) {
+        if (size < 0 || size >= CACHED_SIZES || style < 0 || style > 3) return new Font(family, style, size);
+        Font[][] byStyle = fonts.computeIfAbsent(family, name -> new Font[4][]);
+        if (byStyle[style] == null) byStyle[style] = new Font[CACHED_SIZES];
+        Font font = byStyle[style][size];
+        if (font == null) byStyle[style][size] = font = new Font(family, style, size);
+        return font;
+    }
+
+    private String[] loadFamilies() {
+        String fingerprint = fingerprint();
+        if (cacheFile.exists()) {
+            try {
+                List<String> lines = Files.readAllLines(cacheFile.toPath(), StandardCharsets.UTF_8);
+                if (!lines.isEmpty() && lines.get(0).equals(fingerprint)) {
+                    return lines.subList(1, lines.size()).toArray(new String[0]);
+                }
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+        String[] names = GraphicsEnvironment.getLocalGraphicsEnvironment().getAvailableFontFamilyNames();
+        List<String> lines = new ArrayList<>(names.length + 1);
+        lines.add(fingerprint);
+        lines.addAll(Arrays.asList(names));
+        File temp = new File(cacheFile.getParentFile(), cacheFile.getName() + ".tmp");
+        try {
+            cacheFile.getParentFile().mkdirs();
+            Files.write(temp.toPath(), lines, StandardCharsets.UTF_8);
+            try {
+                Files.move(temp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        return names;
+    }
+
+    /**
+     * Changes whenever fonts are installed or removed: adding or deleting a
+     * file touches its directory, so the modification times of the font
+     * directories and every directory under them are checked. Links aren't
+     * followed.
+     */
+    private static String fingerprint() {
+        StringBuilder fingerprint = new StringBuilder();
+        fingerprint.append(System.getProperty("java.version")).append('|')
+                .append(System.getProperty("os.name")).append('|')
+                .append(Locale.getDefault());
+        long[] hash = {17};
+        for (String path : FONT_DIRECTORIES) {
+            File directory = resolve(path);
+            if (directory == null || !directory.isDirectory()) continue;
+            try {
+                Files.walkFileTree(directory.toPath(), new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+                        hash[0] = hash[0] * 31 + attributes.lastModifiedTime().toMillis();
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                        // Unreadable, so no fonts from it either
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+        return fingerprint.append('|').append(Long.toHexString(hash[0])).toString();
+    }
+
+    private static File resolve(String path) {
+        if (path.startsWith("~")) return new File(System.getProperty("user.home") + path.substring(1));
+        if (!path.startsWith("$")) return new File(path);
+        int slash = path.indexOf('/');
+        String value = System.getenv(path.substring(1, slash));
+        return value != null ? new File(value + path.substring(slash)) : null;
+    }
+
+}
@@ -35,11 +35,13 @@ public class FontChooser extends JPanel {
 
     private TrophonixTXT main;
     private JFrame frame;
+    private FontCatalog catalog;
 
-    public FontChooser(TrophonixTXT main, JFrame frame, Font font) {
+    public FontChooser(TrophonixTXT main, JFrame frame, Font font, FontCatalog catalog) {
         this.main = main;
         this.frame = frame;
         this.font = font;
+        this.catalog = catalog;
 
         GridBagLayout gbPanel = new GridBagLayout();
         GridBagConstraints gbcPanel = new GridBagConstraints();
@@ -85,7 +87,7 @@ public class FontChooser extends JPanel {
         gbPanel.setConstraints(tfFontFamilyField, gbcPanel);
         add(tfFontFamilyField);
 
-        String[] dataFontFamilyList = GraphicsEnvironment.getLocalGraphicsEnvironment().getAvailableFontFamilyNames();
+        String[] dataFontFamilyList = catalog.families();
         lsFontFamilyList = new JList<>(dataFontFamilyList);
         lsFontFamilyList.addListSelectionListener(event -> {
             makeFont();
@@ -223,7 +225,7 @@ public class FontChooser extends JPanel {
 
     private void makeFont() {
         try {
-            this.font = new Font(lsFontFamilyList.getSelectedValue().toString(), lsTypefaceList.getSelectedIndex(), Integer.parseInt(lsList3.getSelectedValue().toString()));
+            this.font = catalog.font(lsFontFamilyList.getSelectedValue().toString(), lsTypefaceList.getSelectedIndex(), (Integer) lsList3.getSelectedValue());
             taPreviewArea.setFont(this.font);
         } catch (Exception ex) {
 
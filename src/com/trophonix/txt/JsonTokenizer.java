@@ -0,0 +1,74 @@
+package com.trophonix.txt;
+
+/**
+ * Tokenizer for JSON: keys, strings, numbers and literals, plus the // and
+ * block comments that JSON with comments allows.
+ */
+public class JsonTokenizer implements Tokenizer {
+
+    private static final int IN_COMMENT = 1;
+
+    @Override
+    public int tokenize(CharSequence line, int state, Sink sink) {
+        int length = line.length();
+        int i = 0;
+        if (state == IN_COMMENT) {
+            i = endComment(line, 0, sink);
+            if (i < 0) return IN_COMMENT;
+        }
+        while (i < length) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                int end = i + 1;
+                while (end < length && line.charAt(end) != '"') end += line.charAt(end) == '\\' ? 2 : 1;
+                end = Math.min(end + 1, length);
+                int next = end;
+                while (next < length && Character.isWhitespace(line.charAt(next))) next++;
+                boolean key = next < length && line.charAt(next) == ':';
+                sink.token(i, end, key ? TokenType.NAME : TokenType.STRING);
+                i = end;
+            } else if (c == '-' || Character.isDigit(c)) {
+                int end = i + 1;
+                while (end < length && isNumberChar(line.charAt(end))) end++;
+                sink.token(i, end, TokenType.NUMBER);
+                i = end;
+            } else if (Character.isLetter(c)) {
+                int end = i + 1;
+                while (end < length && Character.isLetter(line.charAt(end))) end++;
+                String word = line.subSequence(i, end).toString();
+                if (word.equals("true") || word.equals("false") || word.equals("null")) {
+                    sink.token(i, end, TokenType.KEYWORD);
+                }
+                i = end;
+            } else if (c == '/' && i + 1 < length && line.charAt(i + 1) == '/') {
+                sink.token(i, length, TokenType.COMMENT);
+                return INITIAL;
+            } else if (c == '/' && i + 1 < length && line.charAt(i + 1) == '*') {
+                i = endComment(line, i, sink);
+                if (i < 0) return IN_COMMENT;
+            } else {
+                i++;
+            }
+        }
+        return INITIAL;
+    }
+
+    /**
+     * Reports a block comment starting at {@code start} and returns where it
+     * ends, or -1 if it runs past the end of the line.
+     */
+    private static int endComment(CharSequence line, int start, Sink sink) {
+        int end = Tokenizer.indexOf(line, "*/", start == 0 ? 0 : start + 2);
+        if (end < 0) {
+            sink.token(start, line.length(), TokenType.COMMENT);
+            return -1;
+        }
+        sink.token(start, end + 2, TokenType.COMMENT);
+        return end + 2;
+    }
+
+    private static boolean isNumberChar(char c) {
+        return Character.isDigit(c) || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-';
+    }
+
+}
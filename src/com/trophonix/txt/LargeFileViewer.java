@@ -0,0 +1,197 @@
+package com.trophonix.txt;
+
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import javax.swing.text.JTextComponent;
+import java.awt.*;
+import java.io.IOException;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Read-only view of a {@link MappedTextFile} that only decodes and paints the
+ * lines inside the visible rectangle. Font and colours follow the editor so
+ * switching between the two isn't jarring.
+ */
+public class LargeFileViewer extends JComponent implements Scrollable {
+
+    private static final int MAX_LINE_BYTES = 16 * 1024;
+    private static final int TAB_SIZE = 8;
+
+    private final MappedTextFile file;
+    private final JTextComponent style;
+
+    private int widest;
+    private Indexer indexer;
+
+    LargeFileViewer(MappedTextFile file, JTextComponent style) {
+        this.file = file;
+        this.style = style;
+        setBorder(new EmptyBorder(5, 10, 5, 10));
+        setOpaque(true);
+    }
+
+    MappedTextFile getFile() {
+        return file;
+    }
+
+    /**
+     * Indexes the file on a worker thread, growing the view as lines are found.
+     */
+    void startIndexing(IntConsumer progress, IntConsumer done) {
+        indexer = new Indexer(progress, done);
+        indexer.execute();
+    }
+
+    boolean isIndexing() {
+        return indexer != null && !indexer.isDone();
+    }
+
+    void stopIndexing() {
+        if (indexer != null) indexer.cancel(false);
+    }
+
+    void close() {
+        stopIndexing();
+        try {
+            file.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    void scrollToLine(int line) {
+        int lineHeight = getLineHeight();
+        Insets insets = getInsets();
+        scrollRectToVisible(new Rectangle(0, insets.top + line * lineHeight, 1, getVisibleRect().height));
+    }
+
+    @Override
+    public Font getFont() {
+        return style.getFont();
+    }
+
+    @Override
+    public Color getBackground() {
+        return style.getBackground();
+    }
+
+    @Override
+    public Color getForeground() {
+        return style.getForeground();
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        Insets insets = getInsets();
+        long height = (long) file.getLineCount() * getLineHeight() + insets.top + insets.bottom;
+        return new Dimension(widest + insets.left + insets.right, (int) Math.min(height, Integer.MAX_VALUE));
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        g.setColor(getForeground());
+        g.setFont(getFont());
+
+        FontMetrics metrics = g.getFontMetrics();
+        int lineHeight = metrics.getHeight();
+        Insets insets = getInsets();
+        int first = Math.max(0, (clip.y - insets.top) / lineHeight);
+        int last = Math.min(file.getLineCount() - 1, (clip.y + clip.height - insets.top) / lineHeight);
+        long position = file.lineStart(first);
+        int widestBefore = widest;
+        for (int line = first; line <= last && position >= 0 && position <= file.size(); line++) {
+            String text = expandTabs(file.readLine(position, MAX_LINE_BYTES));
+            int y = insets.top + line * lineHeight + metrics.getAscent();
+            g.drawString(text, insets.left, y);
+            widest = Math.max(widest, metrics.stringWidth(text));
+            if (position == file.size()) break;
+            position = file.nextLine(position);
+        }
+        if (widest != widestBefore) SwingUtilities.invokeLater(this::revalidate);
+    }
+
+    private int getLineHeight() {
+        return getFontMetrics(getFont()).getHeight();
+    }
+
+    private static String expandTabs(String text) {
+        if (text.indexOf('\t') < 0) return text;
+        StringBuilder builder = new StringBuilder(text.length() + TAB_SIZE);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\t') {
+                do builder.append(' '); while (builder.length() % TAB_SIZE != 0);
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.VERTICAL ? getLineHeight() : getFontMetrics(getFont()).charWidth('m');
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.VERTICAL ? visibleRect.height : visibleRect.width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        Container parent = getParent();
+        return parent instanceof JViewport && parent.getWidth() > getPreferredSize().width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        Container parent = getParent();
+        return parent instanceof JViewport && parent.getHeight() > getPreferredSize().height;
+    }
+
+    private class Indexer extends SwingWorker<Void, Integer> {
+
+        private final IntConsumer progress;
+        private final IntConsumer done;
+
+        Indexer(IntConsumer progress, IntConsumer done) {
+            this.progress = progress;
+            this.done = done;
+        }
+
+        @Override
+        protected Void doInBackground() {
+            long size = Math.max(file.size(), 1);
+            file.buildIndex(this::isCancelled, position -> publish((int) (position * 100 / size)));
+            return null;
+        }
+
+        @Override
+        protected void process(List<Integer> chunks) {
+            progress.accept(chunks.get(chunks.size() - 1));
+            revalidate();
+            repaint();
+        }
+
+        @Override
+        protected void done() {
+            revalidate();
+            repaint();
+            // Whoever cancelled it has already dealt with the status bar
+            if (isCancelled()) return;
+            done.accept(file.getLineCount());
+        }
+
+    }
+
+}
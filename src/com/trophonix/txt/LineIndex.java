@@ -0,0 +1,242 @@
+package com.trophonix.txt;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Line lengths of a document in an implicit treap, kept up to date from its
+ * document events. Each node knows how many lines and chars are under it, so
+ * going from an offset to its line or from a line to its offset costs
+ * O(log lines), and an edit only touches the lines it changed.
+ * <p>
+ * Every line but the last counts its line break; the last one ends at the end
+ * of the text, without the implied break.
+ */
+public class LineIndex implements DocumentListener {
+
+    private final Document document;
+    private final Random random = new Random();
+    private final Segment segment = new Segment();
+
+    private Line root;
+
+    // results of split(), kept in fields to avoid allocating a pair per call
+    private Line splitLeft, splitRight;
+
+    LineIndex(Document document) {
+        this.document = document;
+        segment.setPartialReturn(true);
+        root = build(lineLengths(0, document.getLength(), 0, 0));
+    }
+
+    void attach() {
+        document.addDocumentListener(this);
+    }
+
+    void detach() {
+        document.removeDocumentListener(this);
+    }
+
+    int getLineCount() {
+        return count(root);
+    }
+
+    /**
+     * The line {@code offset} is on. The end of the text is on the last line.
+     */
+    int getLineOfOffset(int offset) {
+        if (offset >= chars(root)) return count(root) - 1;
+        int line = 0;
+        Line node = root;
+        while (node != null) {
+            int leftChars = chars(node.left);
+            if (offset < leftChars) {
+                node = node.left;
+            } else if (offset < leftChars + node.length) {
+                return line + count(node.left);
+            } else {
+                offset -= leftChars + node.length;
+                line += count(node.left) + 1;
+                node = node.right;
+            }
+        }
+        return count(root) - 1;
+    }
+
+    int getLineStartOffset(int line) {
+        if (line < 0 || line >= count(root)) throw new IndexOutOfBoundsException(Integer.toString(line));
+        int offset = 0;
+        Line node = root;
+        while (true) {
+            int leftCount = count(node.left);
+            if (line < leftCount) {
+                node = node.left;
+            } else if (line == leftCount) {
+                return offset + chars(node.left);
+            } else {
+                offset += chars(node.left) + node.length;
+                line -= leftCount + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Where {@code line} ends, after its line break if it has one.
+     */
+    int getLineEndOffset(int line) {
+        return line + 1 < count(root) ? getLineStartOffset(line + 1) : chars(root);
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent event) {
+        int offset = event.getOffset();
+        int line = getLineOfOffset(offset);
+        int head = offset - getLineStartOffset(line);
+        split(root, line);
+        Line left = splitLeft;
+        split(splitRight, 1);
+        Line old = splitLeft;
+        Line right = splitRight;
+        // The line the text went into, cut at the insert and spread over the
+        // lines the inserted breaks make
+        int[] lengths = lineLengths(offset, event.getLength(), head, old.length - head);
+        root = merge(merge(left, build(lengths)), right);
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent event) {
+        int offset = event.getOffset();
+        int first = getLineOfOffset(offset);
+        int last = getLineOfOffset(offset + event.getLength());
+        split(root, first);
+        Line left = splitLeft;
+        split(splitRight, last - first + 1);
+        // What's left of the first and last line joins up into one
+        Line joined = new Line(chars(splitLeft) - event.getLength(), random.nextInt());
+        root = merge(merge(left, joined), splitRight);
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent event) {}
+
+    /**
+     * Lengths of the lines in {@code len} chars from {@code offset}, with
+     * {@code head} chars added to the first and {@code tail} to the last.
+     */
+    private int[] lineLengths(int offset, int len, int head, int tail) {
+        int[] lengths = new int[16];
+        int lines = 0;
+        int lineStart = offset - head;
+        int end = offset + len;
+        try {
+            int position = offset;
+            while (position < end) {
+                document.getText(position, end - position, segment);
+                for (int i = 0; i < segment.count; i++) {
+                    if (segment.array[segment.offset + i] == '\n') {
+                        if (lines == lengths.length) lengths = Arrays.copyOf(lengths, lines * 2);
+                        int lineEnd = position + i + 1;
+                        lengths[lines++] = lineEnd - lineStart;
+                        lineStart = lineEnd;
+                    }
+                }
+                position += segment.count;
+            }
+        } catch (BadLocationException ex) {
+            throw new IllegalStateException(ex);
+        }
+        lengths = Arrays.copyOf(lengths, lines + 1);
+        lengths[lines] = end - lineStart + tail;
+        return lengths;
+    }
+
+    /**
+     * Builds a treap from lengths in order in O(n), giving each line a random
+     * priority and keeping the right spine on a stack.
+     */
+    private Line build(int[] lengths) {
+        Line[] spine = new Line[lengths.length];
+        int depth = 0;
+        for (int length : lengths) {
+            Line line = new Line(length, random.nextInt());
+            Line last = null;
+            while (depth > 0 && spine[depth - 1].priority < line.priority) {
+                last = spine[--depth];
+                update(last);
+            }
+            line.left = last;
+            if (depth > 0) spine[depth - 1].right = line;
+            spine[depth++] = line;
+        }
+        while (depth > 0) update(spine[--depth]);
+        return spine[0];
+    }
+
+    private void split(Line line, int lines) {
+        if (line == null) {
+            splitLeft = splitRight = null;
+            return;
+        }
+        if (lines <= count(line.left)) {
+            split(line.left, lines);
+            line.left = splitRight;
+            update(line);
+            splitRight = line;
+        } else {
+            split(line.right, lines - count(line.left) - 1);
+            line.right = splitLeft;
+            update(line);
+            splitLeft = line;
+        }
+    }
+
+    private static Line merge(Line left, Line right) {
+        if (left == null) return right;
+        if (right == null) return left;
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            update(left);
+            return left;
+        } else {
+            right.left = merge(left, right.left);
+            update(right);
+            return right;
+        }
+    }
+
+    private static int count(Line line) {
+        return line == null ? 0 : line.count;
+    }
+
+    private static int chars(Line line) {
+        return line == null ? 0 : line.chars;
+    }
+
+    private static void update(Line line) {
+        line.count = count(line.left) + 1 + count(line.right);
+        line.chars = chars(line.left) + line.length + chars(line.right);
+    }
+
+    private static class Line {
+
+        final int length;
+        final int priority;
+        int count = 1;
+        int chars;
+        Line left, right;
+
+        Line(int length, int priority) {
+            this.length = length;
+            this.priority = priority;
+            this.chars = length;
+        }
+
+    }
+
+}
@@ -0,0 +1,166 @@
+package com.trophonix.txt;
+
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.Document;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.View;
+import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+
+/**
+ * Line numbers for the row header of the editor's scroll pane. Only the lines
+ * inside the clip are painted, and their positions come from the text's own
+ * views: a fixed line height when nothing wraps, otherwise the layout the
+ * views already keep for each line. Nothing is measured per line up front.
+ */
+public class LineNumberGutter extends JComponent implements DocumentListener {
+
+    private final JTextComponent text;
+
+    private Document document;
+    private LineIndex lineIndex;
+    private int lineCount;
+    // Lowest offset edited since the last repaint was queued, which covers every edit after it
+    private int changedFrom = Integer.MAX_VALUE;
+    private boolean repaintPending;
+
+    LineNumberGutter(JTextComponent text) {
+        this.text = text;
+        setBorder(new EmptyBorder(5, 10, 5, 8));
+        setOpaque(true);
+        text.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent event) {
+                revalidate();
+                repaint();
+            }
+        });
+        text.addPropertyChangeListener("font", event -> {
+            revalidate();
+            repaint();
+        });
+    }
+
+    void setLineIndex(Document document, LineIndex lineIndex) {
+        if (this.document != null) this.document.removeDocumentListener(this);
+        this.document = document;
+        this.lineIndex = lineIndex;
+        lineCount = lineIndex.getLineCount();
+        changedFrom = Integer.MAX_VALUE;
+        document.addDocumentListener(this);
+        revalidate();
+        repaint();
+    }
+
+    @Override
+    public Font getFont() {
+        return text.getFont();
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        Insets insets = getInsets();
+        int digits = Math.max(Integer.toString(lineCount).length(), 2);
+        int width = getFontMetrics(getFont()).charWidth('0') * digits;
+        return new Dimension(width + insets.left + insets.right, text.getPreferredSize().height);
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent event) {
+        linesChanged(event.getOffset());
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent event) {
+        linesChanged(event.getOffset());
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent event) {}
+
+    /**
+     * Repaints from the edited line down, once the views and the line index
+     * have caught up with the edit. Edits made before that are repainted
+     * together, from the first of them, so a burst like Replace All queues
+     * one repaint rather than one per edit. An edit that keeps the line count
+     * and can't reflow anything repaints nothing.
+     */
+    private void linesChanged(int offset) {
+        changedFrom = Math.min(changedFrom, offset);
+        if (repaintPending) return;
+        repaintPending = true;
+        EventQueue.invokeLater(this::repaintChanged);
+    }
+
+    private void repaintChanged() {
+        int offset = changedFrom;
+        changedFrom = Integer.MAX_VALUE;
+        repaintPending = false;
+        if (lineIndex == null) return;
+        offset = Math.min(offset, document.getLength());
+        int lines = lineIndex.getLineCount();
+        View lineViews = lineViews();
+        if (lines == lineCount && (lineViews == null || lineViews.getViewCount() == 0)) return;
+        if (Integer.toString(lines).length() != Integer.toString(lineCount).length()) revalidate();
+        lineCount = lines;
+        int y = lineY(lineIndex.getLineOfOffset(offset), lineViews);
+        repaint(0, y, getWidth(), getHeight() - y);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        if (lineIndex == null) return;
+        g.setColor(getForeground());
+        g.setFont(getFont());
+
+        FontMetrics metrics = g.getFontMetrics();
+        Insets insets = getInsets();
+        int right = getWidth() - insets.right;
+        View lineViews = lineViews();
+        int lines = Math.min(lineIndex.getLineCount(), lineViews != null && lineViews.getViewCount() > 0
+                ? lineViews.getViewCount() : Integer.MAX_VALUE);
+        int line = firstLine(clip.y, lineViews);
+        for (; line < lines; line++) {
+            int y = lineY(line, lineViews);
+            if (y >= clip.y + clip.height) break;
+            String number = Integer.toString(line + 1);
+            g.drawString(number, right - metrics.stringWidth(number), y + metrics.getAscent());
+        }
+    }
+
+    /**
+     * The view holding the document's lines. It has a child per line when
+     * lines can wrap, and none when every line is one row high.
+     */
+    private View lineViews() {
+        View root = text.getUI().getRootView(text);
+        return root.getViewCount() > 0 ? root.getView(0) : null;
+    }
+
+    private int firstLine(int y, View lineViews) {
+        if (lineViews != null && lineViews.getViewCount() > 0) {
+            int offset = text.viewToModel2D(new Point(0, y));
+            return offset < 0 ? 0 : lineIndex.getLineOfOffset(offset);
+        }
+        return Math.max(0, (y - text.getInsets().top) / getFontMetrics(getFont()).getHeight());
+    }
+
+    private int lineY(int line, View lineViews) {
+        Insets insets = text.getInsets();
+        if (lineViews != null && lineViews.getViewCount() > 0) {
+            Rectangle bounds = new Rectangle(insets.left, insets.top,
+                    text.getWidth() - insets.left - insets.right, text.getHeight() - insets.top - insets.bottom);
+            Shape child = lineViews.getChildAllocation(Math.min(line, lineViews.getViewCount() - 1), bounds);
+            if (child != null) return child.getBounds().y;
+        }
+        return insets.top + line * getFontMetrics(getFont()).getHeight();
+    }
+
+}
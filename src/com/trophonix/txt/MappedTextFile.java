@@ -0,0 +1,158 @@
+package com.trophonix.txt;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongConsumer;
+
+/**
+ * A read-only, memory-mapped text file. Only every {@value #INDEX_INTERVAL}th
+ * line start is remembered, so the index stays tiny, and lines are decoded on
+ * request, so the heap doesn't grow with the file.
+ */
+public class MappedTextFile implements Closeable {
+
+    static final int INDEX_INTERVAL = 1024;
+
+    private static final int REGION_BITS = 28;
+    private static final long REGION_SIZE = 1L << REGION_BITS;
+    // Bytes scanned between checks for cancellation, however few lines they hold
+    private static final int SCAN_BLOCK = 1 << 20;
+
+    private final File file;
+    private final Charset charset;
+    private final FileChannel channel;
+    private final long size;
+    private final MappedByteBuffer[] regions;
+
+    private volatile long[] checkpoints = new long[64];
+    private volatile int lineCount = 1;
+    private volatile boolean indexed;
+
+    MappedTextFile(File file, Charset charset) throws IOException {
+        this.file = file;
+        this.charset = charset;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        size = channel.size();
+        regions = new MappedByteBuffer[(int) ((size + REGION_SIZE - 1) >>> REGION_BITS)];
+        for (int i = 0; i < regions.length; i++) {
+            long start = i * REGION_SIZE;
+            regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, size - start));
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * Lines found so far. Grows while {@link #buildIndex} runs.
+     */
+    int getLineCount() {
+        return lineCount;
+    }
+
+    boolean isIndexed() {
+        return indexed;
+    }
+
+    /**
+     * Scans the whole file once for line breaks. Meant for a worker thread; the
+     * lines found so far are usable from any thread while it runs.
+     */
+    void buildIndex(BooleanSupplier cancelled, LongConsumer progress) {
+        long[] points = checkpoints;
+        int lines = 1;
+        for (int r = 0; r < regions.length; r++) {
+            ByteBuffer region = regions[r];
+            long base = r * REGION_SIZE;
+            for (int block = 0, limit = region.limit(); block < limit; block += SCAN_BLOCK) {
+                for (int i = block, end = Math.min(limit, block + SCAN_BLOCK); i < end; i++) {
+                    if (region.get(i) != '\n') continue;
+                    if (lines % INDEX_INTERVAL == 0) {
+                        int index = lines / INDEX_INTERVAL;
+                        if (index == points.length) {
+                            points = Arrays.copyOf(points, index * 2);
+                            checkpoints = points;
+                        }
+                        points[index] = base + i + 1;
+                    }
+                    lines++;
+                }
+                lineCount = lines;
+                if (cancelled.getAsBoolean()) return;
+                progress.accept(base + Math.min(limit, block + SCAN_BLOCK));
+            }
+        }
+        indexed = true;
+    }
+
+    /**
+     * Byte offset where {@code line} starts, walking forward from the nearest
+     * checkpoint.
+     */
+    long lineStart(int line) {
+        int available = lineCount;
+        if (line >= available) return -1;
+        long position = checkpoints[line / INDEX_INTERVAL];
+        for (int skip = line % INDEX_INTERVAL; skip > 0; skip--) {
+            position = nextLine(position);
+        }
+        return position;
+    }
+
+    /**
+     * Byte offset of the line after the one starting at {@code position}, or
+     * the file size when it's the last line.
+     */
+    long nextLine(long position) {
+        while (position < size) {
+            if (get(position++) == '\n') return position;
+        }
+        return size;
+    }
+
+    /**
+     * Decodes up to {@code maxBytes} of the line starting at {@code position},
+     * without its line break.
+     */
+    String readLine(long position, int maxBytes) {
+        byte[] bytes = new byte[(int) Math.min(maxBytes, size - position)];
+        int length = 0;
+        while (length < bytes.length) {
+            byte b = get(position + length);
+            if (b == '\n') break;
+            bytes[length++] = b;
+        }
+        if (length > 0 && bytes[length - 1] == '\r') length--;
+        CharsetDecoder decoder = Codecs.decoder(charset);
+        CharBuffer chars = CharBuffer.allocate((int) (length * (double) decoder.maxCharsPerByte()) + 1);
+        decoder.decode(ByteBuffer.wrap(bytes, 0, length), chars, true);
+        decoder.flush(chars);
+        chars.flip();
+        return chars.toString();
+    }
+
+    private byte get(long position) {
+        return regions[(int) (position >>> REGION_BITS)].get((int) (position & (REGION_SIZE - 1)));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
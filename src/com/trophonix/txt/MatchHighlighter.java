@@ -0,0 +1,126 @@
+package com.trophonix.txt;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultHighlighter;
+import javax.swing.text.JTextComponent;
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+
+/**
+ * Highlighter that paints find results straight from a {@link MatchList}
+ * instead of keeping a highlight object per match. Only the matches inside
+ * the clip are painted, so moving between matches costs the same with ten
+ * matches or a million. Selections and other highlights work as usual.
+ */
+public class MatchHighlighter extends DefaultHighlighter {
+
+    private MatchList matches = new MatchList();
+    private int current = -1;
+
+    private HighlightPainter matchPainter = DefaultPainter;
+    private HighlightPainter currentPainter = new DefaultHighlightPainter(Color.YELLOW);
+
+    private JTextComponent component;
+
+    @Override
+    public void install(JTextComponent c) {
+        super.install(c);
+        component = c;
+    }
+
+    @Override
+    public void deinstall(JTextComponent c) {
+        super.deinstall(c);
+        component = null;
+    }
+
+    void setPainters(HighlightPainter matchPainter, HighlightPainter currentPainter) {
+        this.matchPainter = matchPainter;
+        this.currentPainter = currentPainter;
+        repaintAll();
+    }
+
+    MatchList getMatches() {
+        return matches;
+    }
+
+    int getCurrent() {
+        return current;
+    }
+
+    /**
+     * Shows {@code matches}, which may keep growing while a search runs. Call
+     * {@link #matchesAdded()} after adding to it.
+     */
+    void setMatches(MatchList matches, int current) {
+        this.matches = matches;
+        this.current = current;
+        repaintAll();
+    }
+
+    void matchesAdded() {
+        repaintAll();
+    }
+
+    void clearMatches() {
+        setMatches(new MatchList(), -1);
+    }
+
+    /**
+     * Moves the current match marker, repainting only the old and new match.
+     */
+    void setCurrent(int index) {
+        int previous = current;
+        current = index;
+        repaintMatch(previous);
+        repaintMatch(current);
+    }
+
+    @Override
+    public void paint(Graphics g) {
+        super.paint(g);
+        if (component == null || matches.isEmpty()) return;
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) clip = new Rectangle(0, 0, component.getWidth(), component.getHeight());
+        int length = component.getDocument().getLength();
+        int from = component.viewToModel2D(new Point(0, clip.y));
+        int to = component.viewToModel2D(new Point(component.getWidth(), clip.y + clip.height));
+        if (from < 0 || to < 0) return;
+
+        Insets insets = component.getInsets();
+        Rectangle bounds = new Rectangle(insets.left, insets.top,
+                component.getWidth() - insets.left - insets.right,
+                component.getHeight() - insets.top - insets.bottom);
+        int index = matches.indexAtOrAfter(from);
+        if (index > 0 && matches.end(index - 1) > from) index--;
+        for (; index < matches.size() && matches.start(index) <= to; index++) {
+            int end = matches.end(index);
+            if (end > length) break;
+            HighlightPainter painter = index == current ? currentPainter : matchPainter;
+            painter.paint(g, matches.start(index), end, bounds, component);
+        }
+    }
+
+    private void repaintMatch(int index) {
+        if (component == null || index < 0 || index >= matches.size()) return;
+        try {
+            Rectangle2D start = component.modelToView2D(matches.start(index));
+            Rectangle2D end = component.modelToView2D(matches.end(index));
+            if (start == null || end == null) return;
+            if (start.getY() == end.getY()) {
+                component.repaint(start.createUnion(end).getBounds());
+            } else {
+                // Spans lines, so the highlight reaches both edges
+                int y = (int) start.getY();
+                component.repaint(0, y, component.getWidth(), (int) Math.ceil(end.getMaxY()) - y);
+            }
+        } catch (BadLocationException ex) {
+            repaintAll();
+        }
+    }
+
+    private void repaintAll() {
+        if (component != null) component.repaint();
+    }
+
+}
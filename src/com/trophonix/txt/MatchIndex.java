@@ -0,0 +1,192 @@
+package com.trophonix.txt;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.Segment;
+
+/**
+ * Keeps a {@link MatchList} in step with its document. Matches after an edit
+ * are shifted and only the lines the edit touched are searched again, so
+ * typing with the find bar open costs the same in any size of file.
+ * <p>
+ * That only works for queries whose matches stay on one line. For the others,
+ * and for any edit made while the first search is still running, the
+ * listener is asked for a full search instead.
+ */
+public class MatchIndex implements DocumentListener {
+
+    interface Listener {
+
+        /**
+         * Matches {@code [index, index + removed)} were replaced by {@code added} new ones.
+         */
+        void matchesChanged(int index, int removed, int added);
+
+        void searchNeeded();
+
+    }
+
+    // Nanoseconds a rescan may take on the EDT
+    private static final long LINE_TIME_LIMIT = 50_000_000;
+
+    private final Document document;
+    private final FindEngine.Query query;
+    private final MatchList matches;
+    private final Listener listener;
+    private final DocumentChars chars;
+
+    private boolean complete;
+
+    MatchIndex(Document document, FindEngine.Query query, MatchList matches, Listener listener) {
+        this.document = document;
+        this.query = query;
+        this.matches = matches;
+        this.listener = listener;
+        chars = new DocumentChars(document);
+    }
+
+    void attach() {
+        document.addDocumentListener(this);
+    }
+
+    void detach() {
+        document.removeDocumentListener(this);
+    }
+
+    /**
+     * Called once the search that fills the list is done. Until then any edit
+     * makes the results useless.
+     */
+    void setComplete() {
+        complete = true;
+    }
+
+    /**
+     * Whether {@code query} still finds exactly {@code [start, end)}, for a
+     * match from a list nothing is keeping up to date.
+     */
+    static boolean isMatch(Document document, FindEngine.Query query, int start, int end) {
+        if (end > document.getLength()) return false;
+        MatchList found = new MatchList();
+        try {
+            CharSequence text = FindEngine.guard(query, new DocumentChars(document), () -> false,
+                    System.nanoTime() + LINE_TIME_LIMIT, end - start);
+            query.find(text, start, start + 1, found);
+        } catch (FindEngine.SearchStoppedException ex) {
+            return false;
+        }
+        return found.size() == 1 && found.start(0) == start && found.end(0) == end;
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent event) {
+        update(event.getOffset(), event.getLength(), event.getOffset() + event.getLength());
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent event) {
+        update(event.getOffset(), -event.getLength(), event.getOffset());
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent event) {}
+
+    private void update(int offset, int delta, int end) {
+        if (!complete || !query.isChunkable()) {
+            complete = false;
+            listener.searchNeeded();
+            return;
+        }
+        Element root = document.getDefaultRootElement();
+        int firstLine = root.getElementIndex(offset);
+        if (root.getElementIndex(end) == root.getElementCount() - 1) {
+            // $ also matches before a line break that ends the text, so edits
+            // on the last line can change matches on the line above
+            firstLine = Math.max(firstLine - 1, 0);
+        }
+        int lineStart = root.getElement(firstLine).getStartOffset();
+        // The line break, or the end of the text on the last line
+        int lineEnd = root.getElement(root.getElementIndex(end)).getEndOffset() - 1;
+        // A break that ends the text is followed by an empty line, which can hold an empty match
+        if (lineEnd + 1 >= document.getLength()) lineEnd = document.getLength();
+
+        // Matches never span lines, so the ones on other lines are still valid
+        int from = matches.indexAtOrAfter(lineStart);
+        int to = matches.indexAtOrAfter(lineEnd - delta + 1);
+        matches.shift(to, delta);
+
+        MatchList found = new MatchList();
+        chars.reset();
+        int scanEnd = Math.min(lineEnd + 1, document.getLength());
+        try {
+            CharSequence text = FindEngine.guard(query, chars, () -> false, System.nanoTime() + LINE_TIME_LIMIT, scanEnd - lineStart);
+            query.find(text, lineStart, scanEnd, found);
+        } catch (FindEngine.SearchStoppedException ex) {
+            // Too slow to do on the EDT, so leave it to a guarded background search
+            complete = false;
+            listener.searchNeeded();
+            return;
+        }
+        matches.splice(from, to, found);
+        listener.matchesChanged(from, to - from, found.size());
+    }
+
+    /**
+     * The document as a CharSequence, read a piece at a time through partial
+     * return segments.
+     */
+    private static class DocumentChars implements CharSequence {
+
+        private final Document document;
+        private final Segment segment = new Segment();
+        private int segmentStart;
+
+        DocumentChars(Document document) {
+            this.document = document;
+            segment.setPartialReturn(true);
+        }
+
+        void reset() {
+            segment.count = 0;
+        }
+
+        @Override
+        public int length() {
+            return document.getLength();
+        }
+
+        @Override
+        public char charAt(int index) {
+            int inSegment = index - segmentStart;
+            if (inSegment < 0 || inSegment >= segment.count) {
+                try {
+                    document.getText(index, document.getLength() - index, segment);
+                } catch (BadLocationException ex) {
+                    throw new IndexOutOfBoundsException(Integer.toString(index));
+                }
+                segmentStart = index;
+                inSegment = 0;
+            }
+            return segment.array[segment.offset + inSegment];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            try {
+                return document.getText(start, end - start);
+            } catch (BadLocationException ex) {
+                throw new IndexOutOfBoundsException(start + ", " + end);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, length()).toString();
+        }
+
+    }
+
+}
@@ -0,0 +1,132 @@
+package com.trophonix.txt;
+
+import java.util.Arrays;
+
+/**
+ * Find results as two parallel int arrays of start and end offsets, sorted by
+ * start. A million matches cost 8 MB instead of a million objects.
+ * <p>
+ * Edits move every match after them, so shifts are applied lazily: matches
+ * from {@code shiftFrom} on owe {@code shiftDelta}, the way a gap buffer owes
+ * the gap. Moving the boundary only touches the matches it passes over, so a
+ * run of edits in one place costs nothing per match.
+ */
+public class MatchList {
+
+    private int[] starts;
+    private int[] ends;
+    private int size;
+
+    private int shiftFrom;
+    private int shiftDelta;
+
+    public MatchList() {
+        this(16);
+    }
+
+    public MatchList(int capacity) {
+        starts = new int[Math.max(capacity, 1)];
+        ends = new int[starts.length];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int start(int index) {
+        return index >= shiftFrom ? starts[index] + shiftDelta : starts[index];
+    }
+
+    public int end(int index) {
+        return index >= shiftFrom ? ends[index] + shiftDelta : ends[index];
+    }
+
+    public void add(int start, int end) {
+        ensureCapacity(size + 1);
+        int owed = size >= shiftFrom ? shiftDelta : 0;
+        starts[size] = start - owed;
+        ends[size] = end - owed;
+        size++;
+    }
+
+    public void addAll(MatchList other) {
+        ensureCapacity(size + other.size);
+        for (int i = 0; i < other.size; i++) add(other.start(i), other.end(i));
+    }
+
+    public void clear() {
+        size = 0;
+        shiftFrom = 0;
+        shiftDelta = 0;
+    }
+
+    /**
+     * Index of the first match starting at or after {@code offset}.
+     */
+    public int indexAtOrAfter(int offset) {
+        int low = 0, high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (start(mid) < offset) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Moves every match from {@code index} on by {@code delta} chars.
+     */
+    void shift(int index, int delta) {
+        moveShift(index);
+        shiftDelta += delta;
+    }
+
+    /**
+     * Replaces matches {@code [from, to)} with {@code matches}, which must fit
+     * between the neighbours in offset order.
+     */
+    void splice(int from, int to, MatchList matches) {
+        if (shiftFrom < to) moveShift(to);
+        int added = matches.size;
+        int change = added - (to - from);
+        ensureCapacity(size + change);
+        System.arraycopy(starts, to, starts, to + change, size - to);
+        System.arraycopy(ends, to, ends, to + change, size - to);
+        size += change;
+        shiftFrom += change;
+        for (int i = 0; i < added; i++) {
+            int owed = from + i >= shiftFrom ? shiftDelta : 0;
+            starts[from + i] = matches.start(i) - owed;
+            ends[from + i] = matches.end(i) - owed;
+        }
+    }
+
+    private void moveShift(int index) {
+        if (shiftDelta == 0) {
+            shiftFrom = index;
+            return;
+        }
+        for (int i = index; i < shiftFrom; i++) {
+            starts[i] -= shiftDelta;
+            ends[i] -= shiftDelta;
+        }
+        for (int i = shiftFrom; i < index; i++) {
+            starts[i] += shiftDelta;
+            ends[i] += shiftDelta;
+        }
+        shiftFrom = index;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > starts.length) {
+            int length = Math.max(capacity, starts.length * 2);
+            starts = Arrays.copyOf(starts, length);
+            ends = Arrays.copyOf(ends, length);
+        }
+    }
+
+}
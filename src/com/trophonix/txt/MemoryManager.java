@@ -0,0 +1,102 @@
+package com.trophonix.txt;
+
+import javax.swing.Timer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the heap used by every open tab under one budget. Every few seconds
+ * the used heap is checked, and while it's over the threshold the inactive
+ * tabs give memory back, least recently used first: all of them are compacted
+ * in one go, which is cheap to undo, and after that they're unloaded one at a
+ * time. The used heap counts garbage until the next collection, so after each
+ * step nothing more is done until the collector has run again.
+ * <p>
+ * Only used on the event thread.
+ */
+public class MemoryManager {
+
+    private static final int CHECK_INTERVAL = 2000;
+
+    private final List<EditorTab> tabs;
+    private final Supplier<EditorTab> activeTab;
+    private final Timer timer = new Timer(CHECK_INTERVAL, event -> check());
+
+    private long threshold = Runtime.getRuntime().maxMemory() / 10 * 7;
+    // Collections counted when the last step was taken
+    private long collections = -1;
+
+    MemoryManager(List<EditorTab> tabs, Supplier<EditorTab> activeTab) {
+        this.tabs = tabs;
+        this.activeTab = activeTab;
+    }
+
+    void start() {
+        timer.start();
+    }
+
+    void stop() {
+        timer.stop();
+    }
+
+    void setThreshold(long threshold) {
+        this.threshold = threshold;
+    }
+
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    void check() {
+        if (usedHeap() < threshold) return;
+        long count = collectionCount();
+        if (count == collections) return;
+        collections = count;
+        reclaim();
+    }
+
+    /**
+     * Takes the next step: compacts every inactive tab that isn't compacted
+     * yet or, if they all are, unloads the one used longest ago.
+     */
+    boolean reclaim() {
+        boolean compacted = false;
+        for (EditorTab tab : tabs) {
+            if (tab != activeTab.get() && tab.isLoaded() && !tab.compacted) {
+                tab.compact();
+                compacted = true;
+            }
+        }
+        if (compacted) return true;
+        EditorTab oldest = leastRecentlyUsed(EditorTab::isLoaded);
+        while (oldest != null) {
+            if (oldest.unload()) return true;
+            // Can't be unloaded, so look past it
+            long lastUsed = oldest.lastUsed;
+            oldest = leastRecentlyUsed(tab -> tab.isLoaded() && tab.lastUsed > lastUsed);
+        }
+        return false;
+    }
+
+    private EditorTab leastRecentlyUsed(Predicate<EditorTab> filter) {
+        EditorTab active = activeTab.get();
+        return tabs.stream()
+                .filter(tab -> tab != active && filter.test(tab))
+                .min(Comparator.comparingLong(tab -> tab.lastUsed))
+                .orElse(null);
+    }
+
+    private static long collectionCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(collector.getCollectionCount(), 0);
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,440 @@
+package com.trophonix.txt;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.*;
+import java.awt.*;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Unwrapped view of a plain document that stays quick with very long lines.
+ * Its width is estimated from the line with the most chars and corrected as
+ * lines get measured, so nothing is measured up front. Long lines are measured
+ * a block at a time, only as far as something needs, and the block offsets
+ * are kept so only the blocks inside the clip get drawn.
+ * <p>
+ * When the line with the most chars gets shorter, a big document is scanned
+ * for the next one a slice of lines at a time, and the width stays as it was
+ * until the scan is done, so an edit never waits on a scan of every line.
+ */
+public class NoWrapView extends View implements TabExpander {
+
+    // Lines longer than this are measured and drawn a block at a time
+    private static final int LONG_LINE = 4096;
+    private static final int BLOCK = 1024;
+    private static final int LAYOUTS_KEPT = 16;
+    // Lines looked at per step when scanning for the longest one
+    private static final int SCAN_SLICE = 50_000;
+
+    private Font font;
+    private FontMetrics metrics;
+    private int charWidth;
+    private int tabSize;
+    private int tabBase;
+
+    // The line with the most chars, which the estimated width is taken from
+    private Element longest;
+    private boolean longestValid;
+    // Runs while the longest line is being looked for, and how far it got
+    private Timer scanner;
+    private int scanned;
+    // The width when the scan started, kept until it's done
+    private float keptWidth;
+    // The widest line measured so far, and how wide it was
+    private Element measuredLine;
+    private int measuredWidth;
+    // The width last given as the preferred span
+    private float width;
+
+    private final Map<Element, LineLayout> layouts = new LinkedHashMap<Element, LineLayout>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Element, LineLayout> eldest) {
+            return size() > LAYOUTS_KEPT;
+        }
+    };
+    private final Segment segment = new Segment();
+
+    NoWrapView(Element element) {
+        super(element);
+    }
+
+    @Override
+    public float getPreferredSpan(int axis) {
+        updateMetrics();
+        switch (axis) {
+            case View.X_AXIS:
+                width = Math.max(estimateWidth(longest()), measuredWidth) + 1;
+                if (scanner != null) width = Math.max(width, keptWidth);
+                return width;
+            case View.Y_AXIS:
+                return getElement().getElementCount() * metrics.getHeight();
+            default:
+                throw new IllegalArgumentException("Invalid axis: " + axis);
+        }
+    }
+
+    @Override
+    public void paint(Graphics g, Shape a) {
+        Rectangle alloc = a.getBounds();
+        JTextComponent host = (JTextComponent) getContainer();
+        updateMetrics();
+        g.setFont(font);
+
+        Highlighter highlighter = host.getHighlighter();
+        LayeredHighlighter layered = highlighter instanceof LayeredHighlighter ? (LayeredHighlighter) highlighter : null;
+        Color unselected = host.isEnabled() ? host.getForeground() : host.getDisabledTextColor();
+        Color selected = host.getCaret().isSelectionVisible() && highlighter != null ? host.getSelectedTextColor() : unselected;
+        int sel0 = host.getSelectionStart();
+        int sel1 = host.getSelectionEnd();
+        SyntaxHighlighter syntax = SyntaxHighlighter.of(getDocument());
+
+        Rectangle clip = g.getClipBounds();
+        int height = metrics.getHeight();
+        Element map = getElement();
+        int lastLine = map.getElementCount() - 1;
+        int first = Math.max(0, (clip.y - alloc.y) / height);
+        int last = Math.min(lastLine, (clip.y + clip.height - alloc.y) / height);
+        int widthBefore = measuredWidth;
+        try {
+            for (int index = first; index <= last; index++) {
+                Element line = map.getElement(index);
+                int p0 = line.getStartOffset();
+                int end = line.getEndOffset() - 1;
+                int from = p0, to = end, blockX = 0;
+                if (end - p0 > LONG_LINE) {
+                    // Only the blocks the clip reaches
+                    LineLayout layout = layout(line);
+                    int block = Math.min((offsetAt(line, clip.x - alloc.x) - p0) / BLOCK, blockCount(line) - 1);
+                    measureBlocks(line, layout, block);
+                    from = p0 + block * BLOCK;
+                    blockX = layout.x[block];
+                    to = Math.min(end, offsetAt(line, clip.x + clip.width - alloc.x) + 1);
+                }
+                if (layered != null) {
+                    int highlightEnd = to < end ? to : index == lastLine ? line.getEndOffset() : end;
+                    layered.paintLayeredHighlights(g, from, highlightEnd, a, host, this);
+                }
+                int y = alloc.y + index * height + metrics.getAscent();
+                tabBase = alloc.x;
+                float x = alloc.x + blockX;
+                x = drawUnselected((Graphics2D) g, x, y, from, Math.min(to, sel0), unselected, syntax);
+                x = drawText((Graphics2D) g, x, y, Math.max(from, sel0), Math.min(to, sel1), selected);
+                x = drawUnselected((Graphics2D) g, x, y, Math.max(from, sel1), to, unselected, syntax);
+                if (from == p0 && to == end) measured(line, (int) Math.ceil(x - alloc.x));
+            }
+        } catch (BadLocationException ex) {
+            ex.printStackTrace();
+        }
+        if (measuredWidth > widthBefore) SwingUtilities.invokeLater(() -> preferenceChanged(null, true, false));
+    }
+
+    private float drawUnselected(Graphics2D g, float x, float y, int p0, int p1, Color color, SyntaxHighlighter syntax)
+            throws BadLocationException {
+        return syntax != null ? syntax.draw(g, x, y, p0, p1, color, this) : drawText(g, x, y, p0, p1, color);
+    }
+
+    private float drawText(Graphics2D g, float x, float y, int p0, int p1, Color color) throws BadLocationException {
+        if (p0 >= p1) return x;
+        g.setColor(color);
+        getDocument().getText(p0, p1 - p0, segment);
+        return Utilities.drawTabbedText(segment, x, y, g, this, p0);
+    }
+
+    @Override
+    public Shape modelToView(int pos, Shape a, Position.Bias b) throws BadLocationException {
+        updateMetrics();
+        Rectangle alloc = a.getBounds();
+        Element map = getElement();
+        int index = map.getElementIndex(pos);
+        Element line = map.getElement(index);
+        int x = alloc.x + xAt(line, Math.min(pos, line.getEndOffset() - 1));
+        return new Rectangle(x, alloc.y + index * metrics.getHeight(), 1, metrics.getHeight());
+    }
+
+    @Override
+    public int viewToModel(float x, float y, Shape a, Position.Bias[] bias) {
+        bias[0] = Position.Bias.Forward;
+        updateMetrics();
+        Rectangle alloc = a.getBounds();
+        if (y < alloc.y) return getStartOffset();
+        if (y > alloc.y + alloc.height) return getEndOffset() - 1;
+        Element map = getElement();
+        int index = Math.min((int) (y - alloc.y) / metrics.getHeight(), map.getElementCount() - 1);
+        Element line = map.getElement(index);
+        if (x < alloc.x) return line.getStartOffset();
+        try {
+            return offsetAt(line, (int) x - alloc.x);
+        } catch (BadLocationException ex) {
+            return -1;
+        }
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent changes, Shape a, ViewFactory f) {
+        updateDamage(changes, a);
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent changes, Shape a, ViewFactory f) {
+        updateDamage(changes, a);
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent changes, Shape a, ViewFactory f) {
+        updateDamage(changes, a);
+    }
+
+    @Override
+    public float nextTabStop(float x, int tabOffset) {
+        if (tabSize == 0) return x;
+        int tabs = (int) ((x - tabBase) / tabSize);
+        return tabBase + (tabs + 1) * tabSize;
+    }
+
+    /**
+     * Forgets what the edit made stale and repaints from the edited line, or
+     * just that line when no lines came or went.
+     */
+    private void updateDamage(DocumentEvent changes, Shape a) {
+        updateMetrics();
+        Element map = getElement();
+        int index = map.getElementIndex(changes.getOffset());
+        Element line = map.getElement(index);
+        LineLayout layout = layouts.get(line);
+        if (layout != null) layout.measured = Math.min(layout.measured, (changes.getOffset() - line.getStartOffset()) / BLOCK);
+        if (line == measuredLine) forgetMeasured();
+
+        DocumentEvent.ElementChange change = changes.getChange(map);
+        if (change != null) {
+            Element[] removed = change.getChildrenRemoved();
+            Element[] added = change.getChildrenAdded();
+            for (Element element : removed) {
+                layouts.remove(element);
+                if (element == longest) forgetLongest();
+                if (element == measuredLine) forgetMeasured();
+            }
+            if (scanner != null && scanned > change.getIndex()) {
+                // Lines the scan hasn't reached yet moved with the edit
+                scanned = Math.max(scanned, change.getIndex() + removed.length) + added.length - removed.length;
+            }
+            for (Element element : added) {
+                offerLongest(element);
+            }
+        } else if (line == longest && changes.getType() == DocumentEvent.EventType.REMOVE) {
+            forgetLongest();
+        } else {
+            offerLongest(line);
+        }
+        float widthBefore = width;
+        if (getPreferredSpan(X_AXIS) != widthBefore || change != null) {
+            preferenceChanged(null, width != widthBefore, change != null);
+        }
+
+        Component host = getContainer();
+        if (host == null) return;
+        if (a == null) {
+            host.repaint();
+            return;
+        }
+        Rectangle alloc = a.getBounds();
+        int y = alloc.y + index * metrics.getHeight();
+        int height = change != null ? Math.max(host.getHeight() - y, 0) : metrics.getHeight();
+        host.repaint(0, y, host.getWidth(), height);
+    }
+
+    private void forgetMeasured() {
+        measuredLine = null;
+        measuredWidth = 0;
+    }
+
+    private void updateMetrics() {
+        Component host = getContainer();
+        Font f = host.getFont();
+        if (font != f) {
+            font = f;
+            metrics = host.getFontMetrics(f);
+            charWidth = metrics.charWidth('m');
+            Object tabs = getDocument().getProperty(PlainDocument.tabSizeAttribute);
+            tabSize = (tabs instanceof Integer ? (Integer) tabs : 8) * charWidth;
+            layouts.clear();
+            forgetMeasured();
+        }
+    }
+
+    private void measured(Element line, int width) {
+        if (width > measuredWidth) {
+            measuredWidth = width;
+            measuredLine = line;
+        }
+    }
+
+    private Element longest() {
+        if (!longestValid) {
+            stopScan();
+            Element map = getElement();
+            longest = null;
+            for (int i = 0, n = map.getElementCount(); i < n; i++) {
+                offerLongest(map.getElement(i));
+            }
+            longestValid = true;
+        }
+        return longest;
+    }
+
+    private void offerLongest(Element line) {
+        if (longest == null || length(line) > length(longest)) longest = line;
+    }
+
+    /**
+     * Looks for the longest line again after the last one got shorter:
+     * on the spot in a small document, a slice at a time in a big one.
+     */
+    private void forgetLongest() {
+        longest = null;
+        if (getElement().getElementCount() <= SCAN_SLICE) {
+            longestValid = false;
+            return;
+        }
+        scanned = 0;
+        if (scanner != null) return;
+        keptWidth = width;
+        scanner = new Timer(0, event -> getDocument().render(this::scanSlice));
+        scanner.start();
+    }
+
+    private void scanSlice() {
+        if (scanner == null) return;
+        if (getContainer() == null) {
+            // The view was replaced, by a new kit or document
+            stopScan();
+            return;
+        }
+        Element map = getElement();
+        int count = map.getElementCount();
+        for (int end = Math.min(count, scanned + SCAN_SLICE); scanned < end; scanned++) {
+            offerLongest(map.getElement(scanned));
+        }
+        if (scanned < count) return;
+        stopScan();
+        float widthBefore = width;
+        if (getPreferredSpan(X_AXIS) != widthBefore) preferenceChanged(null, true, false);
+    }
+
+    private void stopScan() {
+        if (scanner == null) return;
+        scanner.stop();
+        scanner = null;
+    }
+
+    /**
+     * The width of {@code line} as far as it's known: measured up to where it
+     * has been measured and estimated from its length after that.
+     */
+    private int estimateWidth(Element line) {
+        if (line == null) return 0;
+        LineLayout layout = layouts.get(line);
+        if (layout == null) return length(line) * charWidth;
+        return layout.x[layout.measured] + Math.max(length(line) - layout.measured * BLOCK, 0) * charWidth;
+    }
+
+    private static int length(Element line) {
+        return line.getEndOffset() - 1 - line.getStartOffset();
+    }
+
+    /**
+     * Where {@code pos} is drawn, from the start of its line.
+     */
+    private int xAt(Element line, int pos) throws BadLocationException {
+        int p0 = line.getStartOffset();
+        if (length(line) <= LONG_LINE) return measure(p0, pos, 0);
+        LineLayout layout = layout(line);
+        int block = Math.min((pos - p0) / BLOCK, blockCount(line) - 1);
+        measureBlocks(line, layout, block);
+        return measure(p0 + block * BLOCK, pos, layout.x[block]);
+    }
+
+    /**
+     * The offset in {@code line} nearest to {@code x} from the start of the line.
+     */
+    private int offsetAt(Element line, int x) throws BadLocationException {
+        int p0 = line.getStartOffset();
+        int end = line.getEndOffset() - 1;
+        if (end - p0 <= LONG_LINE) return p0 + textOffset(p0, end, 0, x);
+        LineLayout layout = layout(line);
+        int blocks = blockCount(line);
+        while (layout.measured < blocks && layout.x[layout.measured] <= x) {
+            measureBlocks(line, layout, layout.measured + 1);
+        }
+        int low = 0, high = Math.min(layout.measured, blocks - 1);
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (layout.x[mid] <= x) low = mid;
+            else high = mid - 1;
+        }
+        int start = p0 + low * BLOCK;
+        return start + textOffset(start, Math.min(start + BLOCK, end), layout.x[low], x);
+    }
+
+    private LineLayout layout(Element line) {
+        LineLayout layout = layouts.get(line);
+        if (layout == null) {
+            layout = new LineLayout(blockCount(line));
+            layouts.put(line, layout);
+        }
+        return layout;
+    }
+
+    private static int blockCount(Element line) {
+        return (length(line) + BLOCK - 1) / BLOCK;
+    }
+
+    /**
+     * Measures the blocks of a long line up to the start of block {@code block}.
+     */
+    private void measureBlocks(Element line, LineLayout layout, int block) throws BadLocationException {
+        int p0 = line.getStartOffset();
+        int end = line.getEndOffset() - 1;
+        int blocks = blockCount(line);
+        if (layout.x.length < blocks + 1) layout.x = Arrays.copyOf(layout.x, blocks + 1);
+        while (layout.measured < block && layout.measured < blocks) {
+            int start = p0 + layout.measured * BLOCK;
+            layout.x[layout.measured + 1] = measure(start, Math.min(start + BLOCK, end), layout.x[layout.measured]);
+            layout.measured++;
+        }
+        if (layout.measured == blocks) measured(line, layout.x[blocks]);
+    }
+
+    /**
+     * Where the text from {@code p0} to {@code p1} ends when it starts at {@code x}.
+     */
+    private int measure(int p0, int p1, int x) throws BadLocationException {
+        if (p0 >= p1) return x;
+        getDocument().getText(p0, p1 - p0, segment);
+        tabBase = 0;
+        return x + (int) Math.ceil(Utilities.getTabbedTextWidth(segment, metrics, (float) x, this, p0));
+    }
+
+    private int textOffset(int p0, int p1, int x0, int x) throws BadLocationException {
+        getDocument().getText(p0, p1 - p0, segment);
+        tabBase = 0;
+        return Utilities.getTabbedTextOffset(segment, metrics, (float) x0, (float) x, this, p0, true);
+    }
+
+    /**
+     * Where each block of a long line starts. {@code x[i]} is known for every
+     * {@code i <= measured}.
+     */
+    private static class LineLayout {
+
+        int[] x;
+        int measured;
+
+        LineLayout(int blocks) {
+            x = new int[Math.min(blocks, 64) + 1];
+        }
+
+    }
+
+}
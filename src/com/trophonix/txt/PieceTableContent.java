@@ -0,0 +1,622 @@
+package com.trophonix.txt;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.UndoableEdit;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Document content stored as a piece table. Pieces point into read-only chunks
+ * (loaded file data) or into an append-only add buffer, and are kept in an
+ * implicit treap keyed by character offset, so inserts, removes and lookups
+ * cost O(log pieces) and never move the text itself.
+ */
+public class PieceTableContent implements AbstractDocument.Content {
+
+    private static final char[] IMPLIED_BREAK = {'\n'};
+    private static final int INITIAL_ADD_SIZE = 1024;
+    private static final int MAX_ADD_SIZE = 1 << 20;
+
+    private static final long MOD = (1L << 61) - 1;
+    private static final long BASE = 1_000_003L + new Random().nextInt(1 << 30);
+
+    private final Random random = new Random();
+
+    private Piece root;
+
+    private char[] addBuffer = new char[INITIAL_ADD_SIZE];
+    private int addLength;
+
+    private final MarkTable marks = new MarkTable();
+
+    // results of split(), kept in fields to avoid allocating a pair per call
+    private Piece splitLeft, splitRight;
+
+    public PieceTableContent() {
+        root = new Piece(IMPLIED_BREAK, 0, 1, random.nextInt());
+    }
+
+    @Override
+    public Position createPosition(int offset) throws BadLocationException {
+        if (offset < 0 || offset > length()) throw new BadLocationException("Invalid position", offset);
+        return marks.create(offset);
+    }
+
+    @Override
+    public int length() {
+        return size(root);
+    }
+
+    @Override
+    public UndoableEdit insertString(int where, String str) throws BadLocationException {
+        if (where < 0 || where >= length()) throw new BadLocationException("Invalid insert", where);
+        int len = str.length();
+        if (len == 0) return null;
+        ensureAddCapacity(len);
+        str.getChars(0, len, addBuffer, addLength);
+        int start = addLength;
+        addLength += len;
+        if (!extend(root, where, addBuffer, start, len)) {
+            insertPiece(where, new Piece(addBuffer, start, len, random.nextInt()));
+        }
+        marks.insert(where, len);
+        return new InsertUndo(where, len);
+    }
+
+    /**
+     * Inserts {@code len} chars of {@code chars} as a piece of their own. The
+     * array is referenced, not copied, so callers must not modify it afterwards.
+     */
+    UndoableEdit insertChunk(int where, char[] chars, int len) throws BadLocationException {
+        if (where < 0 || where >= length()) throw new BadLocationException("Invalid insert", where);
+        if (len == 0) return null;
+        insertPiece(where, new Piece(chars, 0, len, random.nextInt()));
+        marks.insert(where, len);
+        return new InsertUndo(where, len);
+    }
+
+    @Override
+    public UndoableEdit remove(int where, int nitems) throws BadLocationException {
+        if (where < 0 || nitems < 0 || where + nitems >= length())
+            throw new BadLocationException("Invalid remove", where + nitems);
+        if (nitems == 0) return null;
+        Mark[] positions = marks.capture(where, nitems);
+        Piece removed = cut(where, nitems);
+        marks.remove(where, nitems);
+        return new RemoveUndo(where, nitems, removed, positions);
+    }
+
+    @Override
+    public String getString(int where, int len) throws BadLocationException {
+        Segment segment = new Segment();
+        getChars(where, len, segment);
+        return new String(segment.array, segment.offset, segment.count);
+    }
+
+    @Override
+    public void getChars(int where, int len, Segment txt) throws BadLocationException {
+        if (where < 0 || len < 0 || where + len > length()) throw new BadLocationException("Invalid range", where + len);
+        if (len == 0) {
+            txt.array = IMPLIED_BREAK;
+            txt.offset = 0;
+            txt.count = 0;
+            return;
+        }
+        // Serve the request straight out of a piece whenever we can
+        Piece piece = root;
+        int offset = where;
+        while (piece != null) {
+            int leftSize = size(piece.left);
+            if (offset < leftSize) {
+                piece = piece.left;
+            } else if (offset < leftSize + piece.length) {
+                int inPiece = offset - leftSize;
+                int available = piece.length - inPiece;
+                if (available >= len || txt.isPartialReturn()) {
+                    txt.array = piece.buffer;
+                    txt.offset = piece.start + inPiece;
+                    txt.count = Math.min(available, len);
+                    return;
+                }
+                break;
+            } else {
+                offset -= leftSize + piece.length;
+                piece = piece.right;
+            }
+        }
+        char[] chars = new char[len];
+        copy(root, 0, where, len, chars);
+        txt.array = chars;
+        txt.offset = 0;
+        txt.count = len;
+    }
+
+    int pieceCount() {
+        return count(root);
+    }
+
+    /**
+     * Captures the pieces covering {@code [where, where + len)} without copying
+     * any text.
+     */
+    TextSnapshot snapshot(int where, int len) throws BadLocationException {
+        if (where < 0 || len < 0 || where + len > length()) throw new BadLocationException("Invalid range", where + len);
+        int pieces = countRange(root, 0, where, len);
+        char[][] buffers = new char[Math.max(pieces, 1)][];
+        int[] starts = new int[buffers.length];
+        int[] offsets = new int[buffers.length + 1];
+        if (pieces == 0) buffers[0] = IMPLIED_BREAK;
+        collect(root, 0, where, len, buffers, starts, offsets, 0);
+        offsets[buffers.length] = len;
+        return new TextSnapshot(buffers, starts, offsets);
+    }
+
+    /**
+     * Polynomial hash of the whole text modulo 2^61-1. Subtree hashes are cached
+     * in the treap and only the nodes touched since the last call are redone.
+     */
+    long contentHash() {
+        return hash(root);
+    }
+
+    private void ensureAddCapacity(int len) {
+        if (addLength + len > addBuffer.length) {
+            // Start a fresh buffer instead of growing: pieces and undo edits keep the old one alive
+            addBuffer = new char[Math.max(Math.min(addBuffer.length * 2, MAX_ADD_SIZE), len)];
+            addLength = 0;
+        }
+    }
+
+    /**
+     * Grows the piece ending at {@code where} in place when the new text directly
+     * follows it in the add buffer, which keeps typing from creating a piece per key.
+     */
+    private boolean extend(Piece piece, int where, char[] buffer, int start, int len) {
+        if (piece == null) return false;
+        int leftSize = size(piece.left);
+        boolean done;
+        if (where <= leftSize) {
+            done = extend(piece.left, where, buffer, start, len);
+        } else if (where == leftSize + piece.length) {
+            done = piece.buffer == buffer && piece.start + piece.length == start;
+            if (done) {
+                piece.length += len;
+                piece.pieceHashed = false;
+            }
+        } else if (where > leftSize + piece.length) {
+            done = extend(piece.right, where - leftSize - piece.length, buffer, start, len);
+        } else {
+            done = false;
+        }
+        if (done) {
+            piece.size += len;
+            piece.hashed = false;
+        }
+        return done;
+    }
+
+    private void insertPiece(int where, Piece piece) {
+        split(root, where);
+        Piece right = splitRight;
+        root = merge(merge(splitLeft, piece), right);
+    }
+
+    private Piece cut(int where, int len) {
+        split(root, where);
+        Piece left = splitLeft;
+        split(splitRight, len);
+        Piece removed = splitLeft;
+        root = merge(left, splitRight);
+        return removed;
+    }
+
+    private void paste(int where, Piece pieces) {
+        split(root, where);
+        Piece right = splitRight;
+        root = merge(merge(splitLeft, pieces), right);
+    }
+
+    private void split(Piece piece, int offset) {
+        if (piece == null) {
+            splitLeft = splitRight = null;
+            return;
+        }
+        int leftSize = size(piece.left);
+        if (offset <= leftSize) {
+            split(piece.left, offset);
+            piece.left = splitRight;
+            update(piece);
+            splitRight = piece;
+        } else if (offset >= leftSize + piece.length) {
+            split(piece.right, offset - leftSize - piece.length);
+            piece.right = splitLeft;
+            update(piece);
+            splitLeft = piece;
+        } else {
+            int cut = offset - leftSize;
+            // The tail needs a priority of its own: reusing the piece's one makes every
+            // fragment of a much-split piece tie, and ties degrade the treap into a list
+            Piece tail = new Piece(piece.buffer, piece.start + cut, piece.length - cut, random.nextInt());
+            Piece right = piece.right;
+            piece.length = cut;
+            piece.pieceHashed = false;
+            piece.right = null;
+            update(piece);
+            splitLeft = piece;
+            splitRight = merge(tail, right);
+        }
+    }
+
+    private static Piece merge(Piece left, Piece right) {
+        if (left == null) return right;
+        if (right == null) return left;
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            update(left);
+            return left;
+        } else {
+            right.left = merge(left, right.left);
+            update(right);
+            return right;
+        }
+    }
+
+    private static int copy(Piece piece, int pieceOffset, int where, int len, char[] dest) {
+        if (piece == null) return 0;
+        int start = pieceOffset + size(piece.left);
+        int end = start + piece.length;
+        int copied = 0;
+        if (where < start) copied += copy(piece.left, pieceOffset, where, len, dest);
+        int from = Math.max(where, start);
+        int to = Math.min(where + len, end);
+        if (from < to) {
+            System.arraycopy(piece.buffer, piece.start + from - start, dest, from - where, to - from);
+            copied += to - from;
+        }
+        if (where + len > end) copied += copy(piece.right, end, where, len, dest);
+        return copied;
+    }
+
+    private static int countRange(Piece piece, int pieceOffset, int where, int len) {
+        if (piece == null) return 0;
+        int start = pieceOffset + size(piece.left);
+        int end = start + piece.length;
+        int pieces = Math.max(where, start) < Math.min(where + len, end) ? 1 : 0;
+        if (where < start) pieces += countRange(piece.left, pieceOffset, where, len);
+        if (where + len > end) pieces += countRange(piece.right, end, where, len);
+        return pieces;
+    }
+
+    private static int collect(Piece piece, int pieceOffset, int where, int len,
+                               char[][] buffers, int[] starts, int[] offsets, int index) {
+        if (piece == null) return index;
+        int start = pieceOffset + size(piece.left);
+        int end = start + piece.length;
+        if (where < start) index = collect(piece.left, pieceOffset, where, len, buffers, starts, offsets, index);
+        int from = Math.max(where, start);
+        int to = Math.min(where + len, end);
+        if (from < to) {
+            buffers[index] = piece.buffer;
+            starts[index] = piece.start + from - start;
+            offsets[index] = from - where;
+            index++;
+        }
+        if (where + len > end) index = collect(piece.right, end, where, len, buffers, starts, offsets, index);
+        return index;
+    }
+
+    private static int count(Piece piece) {
+        return piece == null ? 0 : 1 + count(piece.left) + count(piece.right);
+    }
+
+    private static int size(Piece piece) {
+        return piece == null ? 0 : piece.size;
+    }
+
+    private static void update(Piece piece) {
+        piece.size = size(piece.left) + piece.length + size(piece.right);
+        piece.hashed = false;
+    }
+
+    private static long hash(Piece piece) {
+        if (piece == null) return 0;
+        if (!piece.hashed) {
+            if (!piece.pieceHashed) {
+                long hash = 0, power = 1;
+                for (int i = piece.start, end = piece.start + piece.length; i < end; i++) {
+                    hash = add(hash, multiply(piece.buffer[i] + 1, power));
+                    power = multiply(power, BASE);
+                }
+                piece.pieceHash = hash;
+                piece.piecePower = power;
+                piece.pieceHashed = true;
+            }
+            long leftHash = hash(piece.left), leftPower = power(piece.left);
+            long rightHash = hash(piece.right), rightPower = power(piece.right);
+            long middlePower = multiply(leftPower, piece.piecePower);
+            piece.hash = add(add(leftHash, multiply(leftPower, piece.pieceHash)), multiply(middlePower, rightHash));
+            piece.power = multiply(middlePower, rightPower);
+            piece.hashed = true;
+        }
+        return piece.hash;
+    }
+
+    private static long power(Piece piece) {
+        return piece == null ? 1 : piece.power;
+    }
+
+    private static long add(long a, long b) {
+        long sum = a + b;
+        return sum >= MOD ? sum - MOD : sum;
+    }
+
+    private static long multiply(long a, long b) {
+        long aHigh = a >>> 31, aLow = a & 0x7FFFFFFFL;
+        long bHigh = b >>> 31, bLow = b & 0x7FFFFFFFL;
+        long middle = aLow * bHigh + aHigh * bLow;
+        long product = (aHigh * bHigh << 1) + (middle >>> 30) + ((middle & 0x3FFFFFFFL) << 31) + aLow * bLow;
+        long reduced = (product >>> 61) + (product & MOD);
+        return reduced >= MOD ? reduced - MOD : reduced;
+    }
+
+    private static class Piece {
+
+        final char[] buffer;
+        final int start;
+        final int priority;
+        int length;
+        int size;
+        Piece left, right;
+
+        long pieceHash, piecePower;
+        boolean pieceHashed;
+        long hash, power;
+        boolean hashed;
+
+        Piece(char[] buffer, int start, int length, int priority) {
+            this.buffer = buffer;
+            this.start = start;
+            this.length = length;
+            this.size = length;
+            this.priority = priority;
+        }
+
+    }
+
+    private class InsertUndo extends AbstractUndoableEdit {
+
+        private final int where;
+        private final int length;
+        private Piece inserted;
+        private Mark[] positions;
+
+        InsertUndo(int where, int length) {
+            this.where = where;
+            this.length = length;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            positions = marks.capture(where, length);
+            inserted = cut(where, length);
+            marks.remove(where, length);
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            paste(where, inserted);
+            inserted = null;
+            marks.insert(where, length);
+            marks.restore(positions, where, length);
+            positions = null;
+        }
+
+    }
+
+    private class RemoveUndo extends AbstractUndoableEdit {
+
+        private final int where;
+        private final int length;
+        private Piece removed;
+        private Mark[] positions;
+
+        RemoveUndo(int where, int length, Piece removed, Mark[] positions) {
+            this.where = where;
+            this.length = length;
+            this.removed = removed;
+            this.positions = positions;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            paste(where, removed);
+            removed = null;
+            marks.insert(where, length);
+            marks.restore(positions, where, length);
+            positions = null;
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            positions = marks.capture(where, length);
+            removed = cut(where, length);
+            marks.remove(where, length);
+        }
+
+    }
+
+    /**
+     * Positions handed out to the document, kept sorted in a virtual gap buffer
+     * the same way GapContent does it: only the marks between the old and new
+     * edit location move, so local edits stay cheap however many lines exist.
+     */
+    private static class MarkTable {
+
+        private final ReferenceQueue<StickyPosition> queue = new ReferenceQueue<>();
+
+        private Mark[] marks = new Mark[64];
+        private int count;
+        private int unused;
+
+        private long gapStart;
+        private long gapLength = 1L << 40;
+
+        Position create(int offset) {
+            purge();
+            long raw = offset < gapStart ? offset : offset + gapLength;
+            int index = search(raw);
+            if (index < count && marks[index].raw == raw) {
+                StickyPosition position = marks[index].get();
+                if (position != null) return position;
+            }
+            StickyPosition position = new StickyPosition(this);
+            Mark mark = new Mark(position, raw, queue);
+            position.mark = mark;
+            if (count == marks.length) marks = Arrays.copyOf(marks, count * 2);
+            System.arraycopy(marks, index, marks, index + 1, count - index);
+            marks[index] = mark;
+            count++;
+            return position;
+        }
+
+        int offset(Mark mark) {
+            long offset = mark.raw < gapStart ? mark.raw : mark.raw - gapLength;
+            return (int) Math.max(offset, 0);
+        }
+
+        void insert(int where, int len) {
+            moveGap(where);
+            if (where == 0) {
+                // Marks at the very start of the document never move
+                for (int i = 0; i < count && marks[i].raw == gapLength; i++) marks[i].raw = 0;
+            }
+            gapStart += len;
+            gapLength -= len;
+        }
+
+        void remove(int where, int len) {
+            moveGap(where + len);
+            long collapsed = where + gapLength + len;
+            for (int i = search(where); i < count && marks[i].raw < gapStart; i++) {
+                marks[i].raw = collapsed;
+            }
+            gapStart = where;
+            gapLength += len;
+        }
+
+        /**
+         * Remembers where the marks inside a range are, so undoing its removal
+         * can put element boundaries back where they were instead of leaving
+         * them collapsed at the start of the range.
+         */
+        Mark[] capture(int where, int len) {
+            int from = search(where < gapStart ? where : where + gapLength);
+            long endRaw = where + len < gapStart ? where + len : where + len + gapLength;
+            int to = from;
+            while (to < count && marks[to].raw <= endRaw) to++;
+            Mark[] captured = new Mark[to - from];
+            for (int i = from; i < to; i++) {
+                Mark mark = marks[i];
+                captured[i - from] = new Mark(mark.get(), offset(mark), null);
+            }
+            return captured;
+        }
+
+        void restore(Mark[] captured, int where, int len) {
+            for (Mark saved : captured) {
+                StickyPosition position = saved.get();
+                if (position == null) continue;
+                int offset = (int) saved.raw;
+                position.mark.raw = offset < gapStart ? offset : offset + gapLength;
+            }
+            long startRaw = where < gapStart ? where : where + gapLength;
+            long endRaw = where + len < gapStart ? where + len : where + len + gapLength;
+            int from = search(startRaw);
+            int to = from;
+            while (to < count && marks[to].raw <= endRaw) to++;
+            if (to - from > 1) Arrays.sort(marks, from, to, (a, b) -> Long.compare(a.raw, b.raw));
+        }
+
+        private void moveGap(long where) {
+            if (where < gapStart) {
+                for (int i = search(where); i < count && marks[i].raw < gapStart; i++) {
+                    marks[i].raw += gapLength;
+                }
+            } else if (where > gapStart) {
+                for (int i = search(gapStart + gapLength); i < count && marks[i].raw < where + gapLength; i++) {
+                    marks[i].raw -= gapLength;
+                }
+            }
+            gapStart = where;
+        }
+
+        private int search(long raw) {
+            int low = 0, high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (marks[mid].raw < raw) low = mid + 1;
+                else high = mid;
+            }
+            return low;
+        }
+
+        private void purge() {
+            while (queue.poll() != null) unused++;
+            if (unused > 64 && unused > count / 4) {
+                int kept = 0;
+                for (int i = 0; i < count; i++) {
+                    if (marks[i].get() != null) marks[kept++] = marks[i];
+                }
+                Arrays.fill(marks, kept, count, null);
+                count = kept;
+                unused = 0;
+            }
+        }
+
+    }
+
+    private static class Mark extends WeakReference<StickyPosition> {
+
+        long raw;
+
+        Mark(StickyPosition position, long raw, ReferenceQueue<StickyPosition> queue) {
+            super(position, queue);
+            this.raw = raw;
+        }
+
+    }
+
+    private static class StickyPosition implements Position {
+
+        private final MarkTable table;
+        private Mark mark;
+
+        StickyPosition(MarkTable table) {
+            this.table = table;
+        }
+
+        @Override
+        public int getOffset() {
+            return table.offset(mark);
+        }
+
+        @Override
+        public String toString() {
+            return Integer.toString(getOffset());
+        }
+
+    }
+
+}
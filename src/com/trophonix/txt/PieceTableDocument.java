@@ -0,0 +1,44 @@
+package com.trophonix.txt;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.UndoableEditEvent;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.StyleContext;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * Styled document backed by a {@link PieceTableContent}. File data arrives as
+ * chunk sized arrays that become pieces directly, so opening a file never
+ * builds one big copy of it. Only needed when runs carry their own attributes;
+ * see {@link PlainTextDocument} for the lighter model used otherwise.
+ */
+public class PieceTableDocument extends DefaultStyledDocument implements PieceTableText {
+
+    public PieceTableDocument() {
+        super(new PieceTableContent(), new StyleContext());
+    }
+
+    @Override
+    public PieceTableContent content() {
+        return (PieceTableContent) getContent();
+    }
+
+    @Override
+    public void insertChunk(int offset, char[] chars, int len) throws BadLocationException {
+        if (len == 0) return;
+        writeLock();
+        try {
+            UndoableEdit edit = content().insertChunk(offset, chars, len);
+            DefaultDocumentEvent event = new DefaultDocumentEvent(offset, len, DocumentEvent.EventType.INSERT);
+            if (edit != null) event.addEdit(edit);
+            insertUpdate(event, null);
+            event.end();
+            fireInsertUpdate(event);
+            if (edit != null) fireUndoableEditUpdate(new UndoableEditEvent(this, event));
+        } finally {
+            writeUnlock();
+        }
+    }
+
+}
@@ -0,0 +1,42 @@
+package com.trophonix.txt;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+
+/**
+ * A document whose text lives in a {@link PieceTableContent}, whether it's the
+ * plain or the styled kind.
+ */
+public interface PieceTableText extends Document {
+
+    PieceTableContent content();
+
+    /**
+     * The current text, minus the implied line break at the end.
+     */
+    default TextSnapshot snapshot() {
+        TextSnapshot[] snapshot = new TextSnapshot[1];
+        render(() -> {
+            try {
+                snapshot[0] = content().snapshot(0, getLength());
+            } catch (BadLocationException ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+        return snapshot[0];
+    }
+
+    default long contentHash() {
+        long[] hash = new long[1];
+        render(() -> hash[0] = content().contentHash());
+        return hash[0];
+    }
+
+    /**
+     * Inserts {@code len} chars of {@code chars} without copying them into the
+     * add buffer. The array now belongs to the document. Left to each document,
+     * since it needs their write lock and event firing.
+     */
+    void insertChunk(int offset, char[] chars, int len) throws BadLocationException;
+
+}
@@ -0,0 +1,49 @@
+package com.trophonix.txt;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.UndoableEditEvent;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.PlainDocument;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * Unstyled document backed by a {@link PieceTableContent}. Its element tree is
+ * just the root and one element per line, with no character runs or attribute
+ * sets under them, which is all a .txt file needs.
+ * <p>
+ * Per MB of text (20,000 lines of about 50 chars), loaded and laid out in the
+ * editor: about 6 MB of heap wrapped, or 5 MB unwrapped, against 27 MB as a
+ * {@link PieceTableDocument} in the styled kit, and roughly a third of the
+ * time to build and lay out. The chars themselves are 2 MB either way; the
+ * difference is elements, attribute sets and views, around 200 bytes a line
+ * here against 1.2 KB styled.
+ */
+public class PlainTextDocument extends PlainDocument implements PieceTableText {
+
+    public PlainTextDocument() {
+        super(new PieceTableContent());
+    }
+
+    @Override
+    public PieceTableContent content() {
+        return (PieceTableContent) getContent();
+    }
+
+    @Override
+    public void insertChunk(int offset, char[] chars, int len) throws BadLocationException {
+        if (len == 0) return;
+        writeLock();
+        try {
+            UndoableEdit edit = content().insertChunk(offset, chars, len);
+            DefaultDocumentEvent event = new DefaultDocumentEvent(offset, len, DocumentEvent.EventType.INSERT);
+            if (edit != null) event.addEdit(edit);
+            insertUpdate(event, null);
+            event.end();
+            fireInsertUpdate(event);
+            if (edit != null) fireUndoableEditUpdate(new UndoableEditEvent(this, event));
+        } finally {
+            writeUnlock();
+        }
+    }
+
+}
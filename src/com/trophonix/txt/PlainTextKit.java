@@ -0,0 +1,48 @@
+package com.trophonix.txt;
+
+import javax.swing.text.*;
+import java.awt.*;
+
+/**
+ * Editor kit for {@link PlainTextDocument}s. Lines are drawn straight from the
+ * document by a {@link NoWrapView}, or a {@link WrappedPlainView} when wrapping,
+ * in the component's font and colors, the way a JTextArea draws them. Both
+ * color unselected text through the document's {@link SyntaxHighlighter}, if
+ * it has one.
+ */
+public class PlainTextKit extends DefaultEditorKit {
+
+    private final boolean lineWrap;
+
+    PlainTextKit(boolean lineWrap) {
+        this.lineWrap = lineWrap;
+    }
+
+    @Override
+    public ViewFactory getViewFactory() {
+        return element -> lineWrap ? new WrappedView(element) : new NoWrapView(element);
+    }
+
+    @Override
+    public Document createDefaultDocument() {
+        return new PlainTextDocument();
+    }
+
+    private static class WrappedView extends WrappedPlainView {
+
+        WrappedView(Element element) {
+            super(element, true);
+        }
+
+        @Override
+        protected float drawUnselectedText(Graphics2D g, float x, float y, int p0, int p1) throws BadLocationException {
+            SyntaxHighlighter syntax = SyntaxHighlighter.of(getDocument());
+            if (syntax == null) return super.drawUnselectedText(g, x, y, p0, p1);
+            JTextComponent host = (JTextComponent) getContainer();
+            Color color = host.isEnabled() ? host.getForeground() : host.getDisabledTextColor();
+            return syntax.draw(g, x, y, p0, p1, color, this);
+        }
+
+    }
+
+}
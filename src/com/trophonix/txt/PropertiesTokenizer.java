@@ -0,0 +1,59 @@
+package com.trophonix.txt;
+
+/**
+ * Tokenizer for .properties files: comments, keys and values, with values
+ * carried onto the next line by a trailing backslash.
+ */
+public class PropertiesTokenizer implements Tokenizer {
+
+    private static final int CONTINUED = 1;
+
+    @Override
+    public int tokenize(CharSequence line, int state, Sink sink) {
+        int length = line.length();
+        int i = skipSpaces(line, 0);
+        if (state == CONTINUED) {
+            if (i < length) sink.token(i, length, TokenType.STRING);
+            return continues(line) ? CONTINUED : INITIAL;
+        }
+        if (i == length) return INITIAL;
+        char c = line.charAt(i);
+        if (c == '#' || c == '!') {
+            sink.token(i, length, TokenType.COMMENT);
+            return INITIAL;
+        }
+        int keyStart = i;
+        while (i < length) {
+            c = line.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '=' || c == ':' || isSpace(c)) break;
+            i++;
+        }
+        i = Math.min(i, length);
+        sink.token(keyStart, i, TokenType.NAME);
+        i = skipSpaces(line, i);
+        if (i < length && (line.charAt(i) == '=' || line.charAt(i) == ':')) i = skipSpaces(line, i + 1);
+        if (i < length) sink.token(i, length, TokenType.STRING);
+        return continues(line) ? CONTINUED : INITIAL;
+    }
+
+    // An odd number of backslashes at the end carries the value on
+    private static boolean continues(CharSequence line) {
+        int backslashes = 0;
+        for (int i = line.length() - 1; i >= 0 && line.charAt(i) == '\\'; i--) backslashes++;
+        return backslashes % 2 == 1;
+    }
+
+    private static int skipSpaces(CharSequence line, int i) {
+        while (i < line.length() && isSpace(line.charAt(i))) i++;
+        return i;
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\f';
+    }
+
+}
@@ -0,0 +1,405 @@
+package com.trophonix.txt;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps unsaved work safe from a crash with an append-only log of the inserts
+ * and removes made to the open document, in ~/trophonix/txt/recovery. Each
+ * edit adds one length-prefixed, checksummed record the size of the edit, so
+ * typing never rewrites the whole text. The log is replayed on top of its
+ * base: the file as it was opened or saved, the empty text of a new file, or
+ * a snapshot of the text.
+ * <p>
+ * Records are encoded on the event thread and written on one background
+ * thread through a buffer that goes to the file channel whenever the queue
+ * runs dry. Once the log outgrows the text it's compacted: the text is
+ * written to a snapshot, which becomes the base of a new, empty log.
+ */
+public class RecoveryJournal implements DocumentListener {
+
+    // One thread, so records reach the file in the order they were made
+    private static final ThreadPoolExecutor EXECUTOR =
+            new ThreadPoolExecutor(1, 1, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+
+    static {
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private static final int JOURNAL_MAGIC = 0x54585452;
+    private static final int SNAPSHOT_MAGIC = 0x54585453;
+    private static final byte BASE_EMPTY = 0, BASE_FILE = 1, BASE_SNAPSHOT = 2;
+    private static final byte INSERT = 1, REMOVE = 2;
+    // Record header: payload length and checksum
+    private static final int RECORD_HEADER = 8;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long COMPACT_BYTES = 8 * 1024 * 1024;
+    private static final long FORCE_NANOS = 1_000_000_000L;
+
+    private final File journalFile;
+    private final File snapshotFile;
+    private final Segment segment = new Segment();
+
+    // Event thread
+    private PieceTableText document;
+    private File file;
+    private long generation = System.currentTimeMillis();
+    private long logged;
+
+    // Writer thread
+    private FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private long lastForce;
+    // Generation of the last log that was started without an error
+    private volatile long started = -1;
+
+    RecoveryJournal(File directory) {
+        journalFile = new File(directory, "journal.bin");
+        snapshotFile = new File(directory, "snapshot.bin");
+    }
+
+    static File defaultDirectory() {
+        return new File(System.getProperty("user.home"), "trophonix" + File.separator + "txt" + File.separator + "recovery");
+    }
+
+    /**
+     * Starts a new log for {@code document}, which is saved as {@code file}.
+     * If it still matches that file the file is the base; otherwise (or with
+     * no file, unless it's empty) a snapshot of the text is.
+     */
+    void start(PieceTableText document, File file, boolean matchesFile) {
+        stop();
+        this.document = document;
+        this.file = file;
+        byte base = file != null && matchesFile ? BASE_FILE
+                : document.getLength() == 0 ? BASE_EMPTY : BASE_SNAPSHOT;
+        long gen = ++generation;
+        TextSnapshot text = base == BASE_SNAPSHOT ? document.snapshot() : null;
+        byte[] header = header(gen, base, file);
+        logged = 0;
+        document.addDocumentListener(this);
+        EXECUTOR.execute(() -> restart(gen, header, text));
+    }
+
+    /**
+     * Stops logging, leaving what's been logged.
+     */
+    void stop() {
+        if (document != null) document.removeDocumentListener(this);
+        document = null;
+    }
+
+    /**
+     * Stops logging and deletes the log, once its work is saved or given up.
+     */
+    void discard() {
+        stop();
+        EXECUTOR.execute(() -> {
+            closeChannel();
+            journalFile.delete();
+            snapshotFile.delete();
+        });
+    }
+
+    /**
+     * Waits until everything logged so far, by any journal, is in its file.
+     */
+    void sync() {
+        try {
+            EXECUTOR.submit(() -> {}).get();
+        } catch (InterruptedException | ExecutionException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Whether the last log started, and its snapshot if it has one, made it to
+     * disk. Only known once it's been written, so {@link #sync()} first.
+     */
+    boolean isStarted() {
+        return started == generation;
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent event) {
+        int length = event.getLength();
+        ByteBuffer record = record(INSERT, event.getOffset(), 2 * length);
+        try {
+            int offset = event.getOffset();
+            int end = offset + length;
+            segment.setPartialReturn(true);
+            while (offset < end) {
+                document.getText(offset, end - offset, segment);
+                for (int i = 0; i < segment.count; i++) record.putChar(segment.array[segment.offset + i]);
+                offset += segment.count;
+            }
+        } catch (BadLocationException ex) {
+            ex.printStackTrace();
+            return;
+        }
+        append(record);
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent event) {
+        ByteBuffer record = record(REMOVE, event.getOffset(), 4);
+        record.putInt(event.getLength());
+        append(record);
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent event) {}
+
+    private static ByteBuffer record(byte type, int offset, int size) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + 5 + size);
+        record.position(RECORD_HEADER);
+        record.put(type).putInt(offset);
+        return record;
+    }
+
+    private void append(ByteBuffer record) {
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), RECORD_HEADER, record.capacity() - RECORD_HEADER);
+        record.putInt(0, record.capacity() - RECORD_HEADER).putInt(4, (int) crc.getValue());
+        record.rewind();
+        EXECUTOR.execute(() -> write(record));
+        logged += record.capacity();
+        if (logged > Math.max(COMPACT_BYTES, 4L * document.getLength())) start(document, file, false);
+    }
+
+    private byte[] header(long gen, byte base, File file) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(JOURNAL_MAGIC);
+            out.writeLong(gen);
+            out.writeByte(base);
+            byte[] path = file == null ? new byte[0] : file.getAbsolutePath().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(path.length);
+            out.write(path);
+            out.writeLong(file == null ? 0 : file.length());
+            out.writeLong(file == null ? 0 : file.lastModified());
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    /*
+     * Writer thread. A new log is only written once its snapshot is in place,
+     * so after a crash in between, the snapshot is newer than the log and is
+     * recovered on its own.
+     */
+
+    private void restart(long gen, byte[] header, TextSnapshot text) {
+        try {
+            writeBuffer();
+            closeChannel();
+            journalFile.getParentFile().mkdirs();
+            if (text != null) writeSnapshot(gen, text);
+            channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            channel.write(ByteBuffer.wrap(header));
+            channel.force(false);
+            lastForce = System.nanoTime();
+            if (text == null) snapshotFile.delete();
+            started = gen;
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            closeChannel();
+        }
+    }
+
+    private void writeSnapshot(long gen, TextSnapshot text) throws IOException {
+        Path temp = new File(snapshotFile.getParentFile(), snapshotFile.getName() + ".tmp").toPath();
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+            bytes.putInt(SNAPSHOT_MAGIC).putLong(gen).putInt(text.length());
+            Segment chunk = new Segment();
+            for (int position = 0; position < text.length(); ) {
+                text.getChars(position, Math.min(text.length() - position, BUFFER_SIZE / 4), chunk);
+                for (int i = 0; i < chunk.count; i++) {
+                    if (bytes.remaining() < 2) drain(out, bytes);
+                    bytes.putChar(chunk.array[chunk.offset + i]);
+                }
+                position += chunk.count;
+            }
+            drain(out, bytes);
+            out.force(false);
+        }
+        try {
+            Files.move(temp, snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temp, snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void write(ByteBuffer record) {
+        if (channel == null) return;
+        try {
+            if (record.remaining() > buffer.remaining()) writeBuffer();
+            if (record.remaining() > buffer.remaining()) {
+                while (record.hasRemaining()) channel.write(record);
+            } else {
+                buffer.put(record);
+            }
+            if (EXECUTOR.getQueue().isEmpty()) writeBuffer();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            closeChannel();
+        }
+    }
+
+    private void writeBuffer() {
+        if (channel == null) return;
+        try {
+            drain(channel, buffer);
+            long now = System.nanoTime();
+            if (now - lastForce > FORCE_NANOS) {
+                channel.force(false);
+                lastForce = now;
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            closeChannel();
+        }
+    }
+
+    private static void drain(FileChannel out, ByteBuffer bytes) throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) out.write(bytes);
+        bytes.clear();
+    }
+
+    private void closeChannel() {
+        buffer.clear();
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        channel = null;
+    }
+
+    /**
+     * Reads back what the last session left, or null if it left nothing that
+     * wasn't saved. A torn record at the end of the log, from a crash in the
+     * middle of writing it, ends the log there.
+     */
+    Recovery read() {
+        if (!journalFile.exists()) return null;
+        try {
+            ByteBuffer journal = ByteBuffer.wrap(Files.readAllBytes(journalFile.toPath()));
+            if (journal.getInt() != JOURNAL_MAGIC) return null;
+            long gen = journal.getLong();
+            byte base = journal.get();
+            int pathLength = journal.getInt();
+            String path = new String(journal.array(), journal.position(), pathLength, StandardCharsets.UTF_8);
+            journal.position(journal.position() + pathLength);
+            long fileLength = journal.getLong();
+            long fileModified = journal.getLong();
+            File source = path.isEmpty() ? null : new File(path);
+
+            String snapshot = null;
+            long snapshotGen = -1;
+            if (snapshotFile.exists()) {
+                ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(snapshotFile.toPath()));
+                if (bytes.getInt() == SNAPSHOT_MAGIC) {
+                    snapshotGen = bytes.getLong();
+                    int length = bytes.getInt();
+                    CharBuffer chars = bytes.asCharBuffer();
+                    if (chars.remaining() >= length) snapshot = chars.limit(length).toString();
+                }
+            }
+            if (snapshot != null && snapshotGen > gen) return new Recovery(source, null, snapshot, ByteBuffer.allocate(0));
+            if (base == BASE_SNAPSHOT && (snapshot == null || snapshotGen != gen)) return null;
+            if (base != BASE_SNAPSHOT) snapshot = null;
+            if (base == BASE_FILE && (source == null || source.length() != fileLength
+                    || source.lastModified() != fileModified)) return null;
+
+            int records = journal.position();
+            int end = records;
+            CRC32 crc = new CRC32();
+            while (journal.remaining() >= RECORD_HEADER) {
+                int length = journal.getInt();
+                int sum = journal.getInt();
+                if (length < 5 || length > journal.remaining()) break;
+                crc.reset();
+                crc.update(journal.array(), journal.position(), length);
+                if ((int) crc.getValue() != sum) break;
+                journal.position(journal.position() + length);
+                end = journal.position();
+            }
+            if (end == records && snapshot == null) return null;
+            journal.position(records).limit(end);
+            return new Recovery(source, base == BASE_FILE ? source : null, snapshot, journal);
+        } catch (IOException | RuntimeException ex) {
+            ex.printStackTrace();
+            return null;
+        }
+    }
+
+    static class Recovery {
+
+        final File file;
+        // The file the log goes on top of, or null if it starts from text
+        final File base;
+        private final String snapshot;
+        private final ByteBuffer records;
+
+        private Recovery(File file, File base, String snapshot, ByteBuffer records) {
+            this.file = file;
+            this.base = base;
+            this.snapshot = snapshot;
+            this.records = records;
+        }
+
+        /**
+         * Makes the edits in the log, after inserting the snapshot if there
+         * is one, to {@code document}, which holds the base.
+         */
+        void replay(Document document) throws BadLocationException {
+            if (snapshot != null) document.insertString(0, snapshot, null);
+            ByteBuffer log = records.duplicate();
+            while (log.hasRemaining()) {
+                int length = log.getInt();
+                log.getInt();
+                int next = log.position() + length;
+                byte type = log.get();
+                int offset = log.getInt();
+                if (type == INSERT) {
+                    char[] text = new char[(length - 5) / 2];
+                    log.asCharBuffer().get(text);
+                    document.insertString(offset, new String(text), null);
+                } else if (type == REMOVE) {
+                    document.remove(offset, log.getInt());
+                }
+                log.position(next);
+            }
+        }
+
+    }
+
+}
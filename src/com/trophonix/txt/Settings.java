@@ -0,0 +1,134 @@
+package com.trophonix.txt;
+
+import javax.swing.Timer;
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * The editor's settings, kept in config.properties. The file is read once, and
+ * values are parsed the first time they're asked for and cached. Changes are
+ * batched: the file is written half a second after the last one, on a
+ * background thread, to a temporary file that's then renamed over it, so a
+ * crash never leaves a half-written config behind. Only used on the event
+ * thread.
+ */
+public class Settings {
+
+    // One thread, so saves land in the order they were made
+    private static final ThreadPoolExecutor EXECUTOR =
+            new ThreadPoolExecutor(1, 1, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+
+    static {
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private static final int SAVE_DELAY = 500;
+    // Cached for keys that are missing or don't parse
+    private static final Object INVALID = new Object();
+
+    private final File file;
+    private final Properties properties = new Properties();
+    private final Map<String, Object> values = new HashMap<>();
+    private final Timer saveTimer;
+
+    Settings(File file) {
+        this.file = file;
+        if (file.exists()) {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+                properties.load(in);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+        saveTimer = new Timer(SAVE_DELAY, event -> save());
+        saveTimer.setRepeats(false);
+    }
+
+    String getString(String key, String defaultValue) {
+        return get(key, defaultValue, value -> value);
+    }
+
+    boolean getBoolean(String key, boolean defaultValue) {
+        return get(key, defaultValue, Boolean::parseBoolean);
+    }
+
+    int getInt(String key, int defaultValue) {
+        return get(key, defaultValue, Integer::parseInt);
+    }
+
+    long getLong(String key, long defaultValue) {
+        return get(key, defaultValue, Long::parseLong);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T get(String key, T defaultValue, Function<String, T> parser) {
+        Object value = values.get(key);
+        if (value == null) {
+            String raw = properties.getProperty(key);
+            try {
+                value = raw == null ? INVALID : parser.apply(raw.trim());
+            } catch (NumberFormatException ex) {
+                value = INVALID;
+            }
+            values.put(key, value);
+        }
+        return value == INVALID ? defaultValue : (T) value;
+    }
+
+    /**
+     * Changes a setting, to be saved with any others made in the next half
+     * second.
+     */
+    void set(String key, Object value) {
+        String raw = String.valueOf(value);
+        if (raw.equals(properties.getProperty(key))) return;
+        properties.setProperty(key, raw);
+        values.remove(key);
+        saveTimer.restart();
+    }
+
+    /**
+     * Saves any pending changes now, without waiting for the batch to fill.
+     */
+    void flush() {
+        if (saveTimer.isRunning()) save();
+    }
+
+    private void save() {
+        saveTimer.stop();
+        Properties copy = new Properties();
+        copy.putAll(properties);
+        EXECUTOR.execute(() -> write(copy));
+    }
+
+    private void write(Properties properties) {
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            file.getParentFile().mkdirs();
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                BufferedOutputStream buffered = new BufferedOutputStream(out);
+                properties.store(buffered, "TrophonixTXT settings");
+                buffered.flush();
+                out.getFD().sync();
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            temp.delete();
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.trophonix.txt;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Tokenizer for shell scripts: comments, quoted strings, variables, keywords
+ * and numbers. Quoted strings can run over several lines; here-documents are
+ * left as plain text.
+ */
+public class ShellTokenizer implements Tokenizer {
+
+    private static final int IN_SINGLE_QUOTED = 1;
+    private static final int IN_DOUBLE_QUOTED = 2;
+
+    private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+            "if", "then", "else", "elif", "fi", "for", "while", "until", "do", "done", "case", "esac",
+            "in", "function", "select", "return", "local", "export", "readonly", "declare", "unset",
+            "shift", "exit", "break", "continue", "source", "time"));
+
+    @Override
+    public int tokenize(CharSequence line, int state, Sink sink) {
+        int length = line.length();
+        int i = 0;
+        if (state != INITIAL) {
+            i = endQuote(line, 0, 0, state == IN_SINGLE_QUOTED ? '\'' : '"', sink);
+            if (i < 0) return state;
+        }
+        while (i < length) {
+            char c = line.charAt(i);
+            boolean wordStart = i == 0 || !isWordChar(line.charAt(i - 1));
+            if (c == '#' && (i == 0 || Character.isWhitespace(line.charAt(i - 1)) || line.charAt(i - 1) == ';')) {
+                sink.token(i, length, TokenType.COMMENT);
+                return INITIAL;
+            } else if (c == '\'' || c == '"') {
+                i = endQuote(line, i, i + 1, c, sink);
+                if (i < 0) return c == '\'' ? IN_SINGLE_QUOTED : IN_DOUBLE_QUOTED;
+            } else if (c == '\\') {
+                i += 2;
+            } else if (c == '$' && i + 1 < length) {
+                int end = variableEnd(line, i + 1);
+                if (end > i + 1) sink.token(i, end, TokenType.NAME);
+                i = Math.max(end, i + 1);
+            } else if (wordStart && (Character.isLetter(c) || c == '_')) {
+                int end = i + 1;
+                while (end < length && isWordChar(line.charAt(end))) end++;
+                if (KEYWORDS.contains(line.subSequence(i, end).toString())) sink.token(i, end, TokenType.KEYWORD);
+                i = end;
+            } else if (wordStart && Character.isDigit(c)) {
+                int end = i + 1;
+                while (end < length && Character.isDigit(line.charAt(end))) end++;
+                if (end == length || !isWordChar(line.charAt(end))) sink.token(i, end, TokenType.NUMBER);
+                while (end < length && isWordChar(line.charAt(end))) end++;
+                i = end;
+            } else {
+                i++;
+            }
+        }
+        return INITIAL;
+    }
+
+    /**
+     * Reports a quoted string from {@code start} through the closing quote at
+     * or after {@code from} and returns where it ends, or -1 if it runs past
+     * the end of the line. Only double quotes honor backslashes.
+     */
+    private static int endQuote(CharSequence line, int start, int from, char quote, Sink sink) {
+        int i = from;
+        while (i < line.length() && line.charAt(i) != quote) i += quote == '"' && line.charAt(i) == '\\' ? 2 : 1;
+        if (i >= line.length()) {
+            sink.token(start, line.length(), TokenType.STRING);
+            return -1;
+        }
+        sink.token(start, i + 1, TokenType.STRING);
+        return i + 1;
+    }
+
+    // $NAME, ${...}, or one of the special parameters like $1 and $@
+    private static int variableEnd(CharSequence line, int i) {
+        char c = line.charAt(i);
+        if (c == '{') {
+            int close = Tokenizer.indexOf(line, "}", i);
+            return close < 0 ? line.length() : close + 1;
+        }
+        if (Character.isLetter(c) || c == '_') {
+            while (i < line.length() && isWordChar(line.charAt(i))) i++;
+            return i;
+        }
+        return Character.isDigit(c) || "@*#?$!-".indexOf(c) >= 0 ? i + 1 : i;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+}
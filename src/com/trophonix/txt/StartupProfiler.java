@@ -0,0 +1,78 @@
+package com.trophonix.txt;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Times each phase of startup, from the JVM starting to the window's first
+ * paint. Every start appends a line to ~/trophonix/txt/startup.log, so time to
+ * first frame can be compared from one release to the next; the latest one is
+ * also shown in View > Diagnostics.
+ */
+public class StartupProfiler {
+
+    private static final List<String> phases = Collections.synchronizedList(new ArrayList<>());
+
+    private static long started;
+    private static long last;
+    private static long jvmMillis;
+    private static volatile String summary;
+
+    static void start() {
+        started = last = System.nanoTime();
+        jvmMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        phases.add("jvm " + jvmMillis + " ms");
+    }
+
+    /**
+     * Ends the phase running since the last one, under {@code name}.
+     */
+    static void phase(String name) {
+        if (started == 0 || summary != null) return;
+        long now = System.nanoTime();
+        phases.add(name + " " + (now - last) / 1_000_000 + " ms");
+        last = now;
+    }
+
+    /**
+     * Ends startup on the first frame and logs the phases. Later calls do nothing.
+     */
+    static void firstFrame(String version) {
+        if (started == 0 || summary != null) return;
+        phase("first paint");
+        long total = jvmMillis + (System.nanoTime() - started) / 1_000_000;
+        String line;
+        synchronized (phases) {
+            line = "first frame " + total + " ms: " + String.join(", ", phases);
+        }
+        summary = line;
+        String entry = LocalDateTime.now().withNano(0) + " " + version + " " + line + System.lineSeparator();
+        Thread writer = new Thread(() -> {
+            File log = new File(System.getProperty("user.home"), "trophonix" + File.separator + "txt" + File.separator + "startup.log");
+            try {
+                log.getParentFile().mkdirs();
+                Files.write(log.toPath(), entry.getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }, "Startup log");
+        writer.start();
+    }
+
+    /**
+     * The phases of this start, or null until the first frame.
+     */
+    static String summary() {
+        return summary;
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.trophonix.txt;
+
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import java.awt.*;
+
+public class StatusBar extends JPanel {
+
+    private final JLabel messageLabel = new JLabel(" ");
+    private final JLabel positionLabel = new JLabel();
+    private final JPanel taskPanel = new JPanel(new BorderLayout(5, 0));
+    private final JProgressBar progressBar = new JProgressBar(0, 100);
+    private final JButton cancelButton = new JButton("Cancel");
+
+    private Runnable cancelAction;
+
+    StatusBar() {
+        super(new BorderLayout());
+        setBorder(new EmptyBorder(2, 10, 2, 5));
+        add(messageLabel, BorderLayout.CENTER);
+
+        taskPanel.setOpaque(false);
+        progressBar.setPreferredSize(new Dimension(120, progressBar.getPreferredSize().height));
+        taskPanel.add(progressBar, BorderLayout.CENTER);
+        cancelButton.addActionListener(event -> {
+            if (cancelAction != null) cancelAction.run();
+        });
+        taskPanel.add(cancelButton, BorderLayout.EAST);
+        taskPanel.setVisible(false);
+        positionLabel.setBorder(new EmptyBorder(0, 10, 0, 5));
+        JPanel east = new JPanel(new BorderLayout());
+        east.setOpaque(false);
+        east.add(positionLabel, BorderLayout.WEST);
+        east.add(taskPanel, BorderLayout.EAST);
+        add(east, BorderLayout.EAST);
+    }
+
+    @Override
+    public void setForeground(Color fg) {
+        super.setForeground(fg);
+        if (messageLabel != null) messageLabel.setForeground(fg);
+        if (positionLabel != null) positionLabel.setForeground(fg);
+    }
+
+    void setMessage(String message) {
+        messageLabel.setText(message == null || message.isEmpty() ? " " : message);
+    }
+
+    void setPosition(String position) {
+        if (!position.equals(positionLabel.getText())) positionLabel.setText(position);
+    }
+
+    void startTask(String message, Runnable cancelAction) {
+        this.cancelAction = cancelAction;
+        setMessage(message);
+        progressBar.setValue(0);
+        cancelButton.setVisible(cancelAction != null);
+        taskPanel.setVisible(true);
+        revalidate();
+    }
+
+    void setProgress(int progress) {
+        progressBar.setValue(progress);
+    }
+
+    void endTask(String message) {
+        cancelAction = null;
+        setMessage(message);
+        taskPanel.setVisible(false);
+        revalidate();
+    }
+
+}
@@ -0,0 +1,344 @@
+package com.trophonix.txt;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.*;
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Colors a plain document's text by its tokens while the views draw it,
+ * without putting any styles in the document. The tokenizer state each line
+ * starts in is cached, so a line is tokenized on its own when it's painted.
+ * <p>
+ * An edit keeps the states above the edited line and shifts the ones below
+ * it. A background worker then tokenizes down from the edited line until the
+ * state a line starts in matches the cached one again, at which point nothing
+ * further down can have changed. Until it gets there, lines are painted from
+ * the states they had, so typing only ever retokenizes the lines on screen.
+ */
+public class SyntaxHighlighter implements DocumentListener {
+
+    static final String PROPERTY = "syntaxHighlighter";
+
+    // Lines longer than this are drawn without colors rather than tokenized whole on every paint
+    private static final int MAX_LINE = 100_000;
+    private static final long BATCH_NANOS = 2_000_000;
+    private static final int CACHED_LINES = 256;
+    private static final int UNKNOWN = -1;
+
+    private final AbstractDocument document;
+    private final Tokenizer tokenizer;
+    private final JTextComponent host;
+    private final Segment segment = new Segment();
+    private final Map<TokenType, Color> colors = new EnumMap<>(TokenType.class);
+
+    // Tokens of recently painted lines; only touched on the event thread
+    private final Map<Element, Tokens> tokens = new LinkedHashMap<Element, Tokens>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Element, Tokens> eldest) {
+            return size() > CACHED_LINES;
+        }
+    };
+
+    // Guarded by the document lock: written under the read lock by the
+    // worker and under the write lock by the listener
+    private int[] states;
+    private int lineCount;
+    private int validLines = 1;
+    private int knownLines = 1;
+    private int changedEnd;
+
+    private Worker worker;
+    // An edit came in while the worker was running
+    private boolean rerun;
+
+    SyntaxHighlighter(Document document, Tokenizer tokenizer, JTextComponent host) {
+        this.document = (AbstractDocument) document;
+        this.tokenizer = tokenizer;
+        this.host = host;
+        lineCount = document.getDefaultRootElement().getElementCount();
+        states = new int[Math.max(lineCount, 16)];
+        Arrays.fill(states, UNKNOWN);
+        states[0] = Tokenizer.INITIAL;
+    }
+
+    Tokenizer getTokenizer() {
+        return tokenizer;
+    }
+
+    /**
+     * The highlighter attached to {@code document}, or null if it has none.
+     */
+    static SyntaxHighlighter of(Document document) {
+        Object highlighter = document.getProperty(PROPERTY);
+        return highlighter instanceof SyntaxHighlighter ? (SyntaxHighlighter) highlighter : null;
+    }
+
+    void attach() {
+        document.addDocumentListener(this);
+        document.putProperty(PROPERTY, this);
+        retokenize();
+    }
+
+    void detach() {
+        document.removeDocumentListener(this);
+        document.putProperty(PROPERTY, null);
+        if (worker != null) worker.cancel(false);
+        worker = null;
+    }
+
+    void setColors(Map<TokenType, Color> colors) {
+        this.colors.putAll(colors);
+        host.repaint();
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent event) {
+        edited(event.getOffset());
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent event) {
+        edited(event.getOffset());
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent event) {}
+
+    /**
+     * Shifts the cached states past the edited line and marks everything from
+     * it down as needing another look. The edited line's own start state
+     * can't have changed.
+     */
+    private void edited(int offset) {
+        tokens.clear();
+        Element root = document.getDefaultRootElement();
+        int line = root.getElementIndex(offset);
+        int count = root.getElementCount();
+        int delta = count - lineCount;
+        if (count > states.length) states = Arrays.copyOf(states, Math.max(count, states.length * 2));
+        if (delta > 0) {
+            System.arraycopy(states, line + 1, states, line + 1 + delta, lineCount - line - 1);
+            Arrays.fill(states, line + 1, line + 1 + delta, UNKNOWN);
+        } else if (delta < 0) {
+            System.arraycopy(states, line + 1 - delta, states, line + 1, count - line - 1);
+            Arrays.fill(states, count, lineCount, UNKNOWN);
+        }
+        lineCount = count;
+
+        int touchedEnd = line + 1 + Math.max(delta, 0);
+        if (validLines >= knownLines) {
+            changedEnd = touchedEnd;
+        } else {
+            if (changedEnd > line) changedEnd = Math.max(changedEnd + delta, line + 1);
+            changedEnd = Math.max(changedEnd, touchedEnd);
+        }
+        if (knownLines > line + 1) knownLines = Math.max(knownLines + delta, line + 1);
+        knownLines = Math.min(knownLines, lineCount);
+        validLines = Math.min(validLines, line + 1);
+        changedEnd = Math.min(changedEnd, lineCount);
+        retokenize();
+    }
+
+    private void retokenize() {
+        if (worker != null && !worker.isDone()) {
+            // It may already be past the edited lines, so it runs again when it's done
+            rerun = true;
+            return;
+        }
+        rerun = false;
+        worker = new Worker();
+        worker.execute();
+    }
+
+    /**
+     * Draws {@code p0} to {@code p1}, all on one line, in the colors of its
+     * tokens, falling back to {@code color} between tokens. Returns the x
+     * position after the text, like {@link Utilities#drawTabbedText}.
+     */
+    float draw(Graphics2D g, float x, float y, int p0, int p1, Color color, TabExpander expander) throws BadLocationException {
+        if (p0 >= p1) return x;
+        Element line = document.getDefaultRootElement().getElement(document.getDefaultRootElement().getElementIndex(p0));
+        Tokens lineTokens = tokensOf(line);
+        int start = line.getStartOffset();
+        int position = p0;
+        if (lineTokens != null) {
+            for (int i = lineTokens.first(p0 - start); i < lineTokens.count; i++) {
+                int tokenStart = start + lineTokens.starts[i];
+                if (tokenStart >= p1) break;
+                int tokenEnd = Math.min(start + lineTokens.ends[i], p1);
+                x = drawText(g, x, y, position, tokenStart, color, expander);
+                position = Math.max(position, tokenStart);
+                Color tokenColor = colors.get(lineTokens.types[i]);
+                x = drawText(g, x, y, position, tokenEnd, tokenColor != null ? tokenColor : color, expander);
+                position = Math.max(position, tokenEnd);
+            }
+        }
+        return drawText(g, x, y, position, p1, color, expander);
+    }
+
+    private float drawText(Graphics2D g, float x, float y, int p0, int p1, Color color, TabExpander expander)
+            throws BadLocationException {
+        if (p0 >= p1) return x;
+        g.setColor(color);
+        document.getText(p0, p1 - p0, segment);
+        return Utilities.drawTabbedText(segment, x, y, g, expander, p0);
+    }
+
+    /**
+     * The tokens of {@code line}, starting from its cached state. A line the
+     * worker hasn't reached yet starts from the state it had before the last
+     * edit, or the initial state if it's never been tokenized.
+     */
+    private Tokens tokensOf(Element line) throws BadLocationException {
+        Tokens lineTokens = tokens.get(line);
+        if (lineTokens != null) return lineTokens;
+        int start = line.getStartOffset();
+        int length = line.getEndOffset() - 1 - start;
+        if (length > MAX_LINE) return null;
+        int index = document.getDefaultRootElement().getElementIndex(start);
+        int state = index < lineCount && states[index] != UNKNOWN ? states[index] : Tokenizer.INITIAL;
+        Segment text = new Segment();
+        document.getText(start, length, text);
+        lineTokens = new Tokens();
+        tokenizer.tokenize(text, state, lineTokens);
+        tokens.put(line, lineTokens);
+        return lineTokens;
+    }
+
+    /**
+     * Tokenizes one batch of lines under the document's read lock, so edits
+     * wait at most one batch. Returns the range of lines whose start state
+     * changed, an empty range if none did, or null once every state is known.
+     */
+    private int[] tokenizeBatch() {
+        int[] changed = new int[2];
+        boolean[] finished = new boolean[1];
+        document.render(() -> {
+            if (validLines >= lineCount) {
+                finished[0] = true;
+                return;
+            }
+            Element root = document.getDefaultRootElement();
+            Segment text = new Segment();
+            long deadline = System.nanoTime() + BATCH_NANOS;
+            int first = -1, last = -1;
+            try {
+                while (validLines < lineCount && System.nanoTime() < deadline) {
+                    int index = validLines - 1;
+                    Element line = root.getElement(index);
+                    document.getText(line.getStartOffset(), line.getEndOffset() - 1 - line.getStartOffset(), text);
+                    int state = tokenizer.tokenize(text, states[index], Tokenizer.NONE);
+                    int next = index + 1;
+                    if (next >= changedEnd && next < knownLines && states[next] == state) {
+                        // Converged: every line below starts as it did before
+                        validLines = knownLines;
+                        break;
+                    }
+                    if (states[next] != state) {
+                        if (first < 0) first = next;
+                        last = next;
+                    }
+                    states[next] = state;
+                    validLines = next + 1;
+                    knownLines = Math.max(knownLines, validLines);
+                }
+            } catch (BadLocationException ex) {
+                ex.printStackTrace();
+                validLines = lineCount;
+            }
+            changed[0] = first;
+            changed[1] = last;
+        });
+        return finished[0] ? null : changed;
+    }
+
+    private class Worker extends SwingWorker<Void, int[]> {
+
+        @Override
+        protected Void doInBackground() {
+            int[] changed;
+            while (!isCancelled() && (changed = tokenizeBatch()) != null) {
+                if (changed[0] >= 0) publish(changed);
+            }
+            return null;
+        }
+
+        /**
+         * Repaints the lines that now start in a different state. An edit
+         * since may have moved them, but the edit repaints what it moved.
+         */
+        @Override
+        protected void process(List<int[]> chunks) {
+            if (worker != this) return;
+            int first = Integer.MAX_VALUE, last = -1;
+            for (int[] chunk : chunks) {
+                first = Math.min(first, chunk[0]);
+                last = Math.max(last, chunk[1]);
+            }
+            tokens.clear();
+            Element root = document.getDefaultRootElement();
+            if (first >= root.getElementCount()) return;
+            last = Math.min(last, root.getElementCount() - 1);
+            try {
+                Rectangle2D top = host.modelToView2D(root.getElement(first).getStartOffset());
+                Rectangle2D bottom = host.modelToView2D(root.getElement(last).getEndOffset() - 1);
+                if (top == null || bottom == null) return;
+                int y = (int) top.getY();
+                host.repaint(0, y, host.getWidth(), (int) Math.ceil(bottom.getMaxY()) - y);
+            } catch (BadLocationException ex) {
+                ex.printStackTrace();
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (worker == this && rerun) retokenize();
+        }
+
+    }
+
+    /**
+     * One line's tokens, in order, as offsets from the line start.
+     */
+    private static class Tokens implements Tokenizer.Sink {
+
+        int[] starts = new int[8];
+        int[] ends = new int[8];
+        TokenType[] types = new TokenType[8];
+        int count;
+
+        @Override
+        public void token(int start, int end, TokenType type) {
+            if (start >= end) return;
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+                types = Arrays.copyOf(types, count * 2);
+            }
+            starts[count] = start;
+            ends[count] = end;
+            types[count++] = type;
+        }
+
+        // The first token ending after offset
+        int first(int offset) {
+            int low = 0, high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (ends[mid] <= offset) low = mid + 1;
+                else high = mid;
+            }
+            return low;
+        }
+
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.trophonix.txt;
+
+import javax.swing.text.Segment;
+
+/**
+ * Immutable view of a document's text at one moment. It holds the piece list,
+ * not a copy of the characters, which stay valid because the piece table never
+ * overwrites a buffer. Safe to read from any thread.
+ */
+public class TextSnapshot implements CharSequence {
+
+    private final char[][] buffers;
+    private final int[] starts;
+    // offsets[i] is where piece i begins in the snapshot, offsets[pieces] is the length
+    private final int[] offsets;
+    private final int from;
+    private final int length;
+
+    private int lastPiece;
+
+    TextSnapshot(char[][] buffers, int[] starts, int[] offsets) {
+        this(buffers, starts, offsets, 0, offsets[offsets.length - 1]);
+    }
+
+    private TextSnapshot(char[][] buffers, int[] starts, int[] offsets, int from, int length) {
+        this.buffers = buffers;
+        this.starts = starts;
+        this.offsets = offsets;
+        this.from = from;
+        this.length = length;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) throw new IndexOutOfBoundsException(Integer.toString(index));
+        int position = from + index;
+        int piece = findPiece(position);
+        return buffers[piece][starts[piece] + position - offsets[piece]];
+    }
+
+    @Override
+    public TextSnapshot subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) throw new IndexOutOfBoundsException(start + ", " + end);
+        return new TextSnapshot(buffers, starts, offsets, from + start, end - start);
+    }
+
+    /**
+     * The same text with its own lookup cache, for handing to another thread.
+     */
+    TextSnapshot view() {
+        return new TextSnapshot(buffers, starts, offsets, from, length);
+    }
+
+    /**
+     * Points {@code segment} at the text in place. With a partial return
+     * segment this never copies, but it may hand back less than {@code len}.
+     */
+    public void getChars(int where, int len, Segment segment) {
+        if (where < 0 || len < 0 || where + len > length) throw new IndexOutOfBoundsException(where + ", " + len);
+        int position = from + where;
+        int piece = len == 0 ? 0 : findPiece(position);
+        int available = len == 0 ? 0 : offsets[piece + 1] - position;
+        if (available >= len || segment.isPartialReturn()) {
+            segment.array = len == 0 ? new char[0] : buffers[piece];
+            segment.offset = len == 0 ? 0 : starts[piece] + position - offsets[piece];
+            segment.count = Math.min(available, len);
+            return;
+        }
+        char[] chars = new char[len];
+        copy(position, len, chars, 0);
+        segment.array = chars;
+        segment.offset = 0;
+        segment.count = len;
+    }
+
+    @Override
+    public String toString() {
+        char[] chars = new char[length];
+        copy(from, length, chars, 0);
+        return new String(chars);
+    }
+
+    private void copy(int position, int len, char[] dest, int destPos) {
+        int piece = findPiece(position);
+        while (len > 0) {
+            int inPiece = position - offsets[piece];
+            int count = Math.min(len, offsets[piece + 1] - position);
+            System.arraycopy(buffers[piece], starts[piece] + inPiece, dest, destPos, count);
+            position += count;
+            destPos += count;
+            len -= count;
+            piece++;
+        }
+    }
+
+    private int findPiece(int position) {
+        int piece = lastPiece;
+        if (offsets[piece] <= position && position < offsets[piece + 1]) return piece;
+        int low = 0, high = buffers.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (offsets[mid] <= position) low = mid;
+            else high = mid - 1;
+        }
+        lastPiece = low;
+        return low;
+    }
+
+}
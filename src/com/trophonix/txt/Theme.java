@@ -0,0 +1,70 @@
+package com.trophonix.txt;
+
+import java.awt.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A set of editor colors, read from resources/themes.properties.
+ */
+public class Theme {
+
+    final String id;
+    final String name;
+    final Color barBackground;
+    final Color barForeground;
+    final Color background;
+    final Color foreground;
+    final Color match;
+    final Color currentMatch;
+    final Map<TokenType, Color> syntax = new EnumMap<>(TokenType.class);
+
+    private Theme(String id, Properties properties) {
+        this.id = id;
+        name = properties.getProperty(id + ".name", id);
+        barBackground = color(properties, id + ".barBackground");
+        barForeground = color(properties, id + ".barForeground");
+        background = color(properties, id + ".background");
+        foreground = color(properties, id + ".foreground");
+        match = color(properties, id + ".match");
+        currentMatch = color(properties, id + ".currentMatch");
+        for (TokenType type : TokenType.values()) {
+            syntax.put(type, color(properties, id + ".syntax." + type.name().toLowerCase(Locale.ROOT)));
+        }
+    }
+
+    static List<Theme> load() {
+        List<Theme> themes = new ArrayList<>();
+        Properties properties = new Properties();
+        try (InputStream in = Theme.class.getResourceAsStream("resources/themes.properties")) {
+            if (in == null) return themes;
+            properties.load(in);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return themes;
+        }
+        for (String id : properties.getProperty("themes", "").split(",")) {
+            id = id.trim();
+            if (id.isEmpty()) continue;
+            try {
+                themes.add(new Theme(id, properties));
+            } catch (NumberFormatException ex) {
+                ex.printStackTrace();
+            }
+        }
+        return themes;
+    }
+
+    private static Color color(Properties properties, String key) {
+        String value = properties.getProperty(key);
+        if (value == null) throw new NumberFormatException("Missing " + key);
+        return Color.decode(value.trim());
+    }
+
+}
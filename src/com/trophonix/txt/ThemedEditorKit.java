@@ -0,0 +1,57 @@
+package com.trophonix.txt;
+
+import javax.swing.text.*;
+import java.awt.*;
+
+/**
+ * Styled editor kit whose text takes its color from the component unless a
+ * run sets one itself. Changing theme is then a setForeground call instead of
+ * a rewrite of every run's attributes.
+ */
+public class ThemedEditorKit extends StyledEditorKit {
+
+    private static final ViewFactory FACTORY = element -> {
+        String kind = element.getName();
+        if (kind != null) {
+            switch (kind) {
+                case AbstractDocument.ContentElementName:
+                    return new ThemedLabelView(element);
+                case AbstractDocument.ParagraphElementName:
+                    return new ParagraphView(element);
+                case AbstractDocument.SectionElementName:
+                    return new BoxView(element, View.Y_AXIS);
+                case StyleConstants.ComponentElementName:
+                    return new ComponentView(element);
+                case StyleConstants.IconElementName:
+                    return new IconView(element);
+            }
+        }
+        return new LabelView(element);
+    };
+
+    @Override
+    public ViewFactory getViewFactory() {
+        return FACTORY;
+    }
+
+    @Override
+    public Document createDefaultDocument() {
+        return new PieceTableDocument();
+    }
+
+    private static class ThemedLabelView extends LabelView {
+
+        ThemedLabelView(Element element) {
+            super(element);
+        }
+
+        @Override
+        public Color getForeground() {
+            if (getAttributes().isDefined(StyleConstants.Foreground)) return super.getForeground();
+            Container container = getContainer();
+            return container != null ? container.getForeground() : super.getForeground();
+        }
+
+    }
+
+}
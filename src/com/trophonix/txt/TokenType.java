@@ -0,0 +1,11 @@
+package com.trophonix.txt;
+
+/**
+ * Kinds of token a {@link Tokenizer} reports. Each theme has a color for every
+ * kind, under syntax. and the kind's name in lower case.
+ */
+public enum TokenType {
+
+    COMMENT, STRING, KEYWORD, NUMBER, NAME
+
+}
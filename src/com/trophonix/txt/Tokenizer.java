@@ -0,0 +1,52 @@
+package com.trophonix.txt;
+
+import java.util.Locale;
+
+/**
+ * Splits text into tokens a line at a time. Whatever a tokenizer needs to
+ * carry from one line to the next, like being inside a comment, goes in the
+ * int state it returns, so a line can be tokenized again knowing only the
+ * state it starts in.
+ */
+public interface Tokenizer {
+
+    int INITIAL = 0;
+
+    Sink NONE = (start, end, type) -> {};
+
+    interface Sink {
+
+        void token(int start, int end, TokenType type);
+
+    }
+
+    /**
+     * Reports the tokens of {@code line}, which has no line break, with
+     * offsets from its start, and returns the state the next line starts in.
+     */
+    int tokenize(CharSequence line, int state, Sink sink);
+
+    /**
+     * The tokenizer for a file, going by its name, or null if there isn't one.
+     */
+    static Tokenizer forFile(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        if (lower.endsWith(".properties")) return new PropertiesTokenizer();
+        if (lower.endsWith(".json")) return new JsonTokenizer();
+        if (lower.endsWith(".xml") || lower.endsWith(".xsd") || lower.endsWith(".xsl")
+                || lower.endsWith(".svg") || lower.endsWith(".pom")) return new XmlTokenizer();
+        if (lower.endsWith(".sh") || lower.endsWith(".bash") || lower.endsWith(".zsh")
+                || lower.equals(".bashrc") || lower.equals(".profile")) return new ShellTokenizer();
+        return null;
+    }
+
+    static int indexOf(CharSequence text, String target, int from) {
+        for (int i = Math.max(from, 0), last = text.length() - target.length(); i <= last; i++) {
+            int matched = 0;
+            while (matched < target.length() && text.charAt(i + matched) == target.charAt(matched)) matched++;
+            if (matched == target.length()) return i;
+        }
+        return -1;
+    }
+
+}
@@ -3,10 +3,14 @@ package com.trophonix.txt;
 import java.util.*;
 import javax.imageio.ImageIO;
 import javax.swing.*;
+import javax.swing.Timer;
 import javax.swing.border.EmptyBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.event.MenuEvent;
 import javax.swing.event.MenuListener;
 import javax.swing.event.UndoableEditEvent;
+import javax.swing.event.UndoableEditListener;
 import javax.swing.text.*;
 import javax.swing.undo.*;
 import java.awt.*;
@@ -15,50 +19,84 @@ import java.awt.datatransfer.DataFlavor;
 import java.awt.datatransfer.StringSelection;
 import java.awt.datatransfer.Transferable;
 import java.awt.event.*;
+import java.awt.geom.Rectangle2D;
 import java.io.*;
+import java.nio.charset.Charset;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * Created by Lucas on 3/31/17.
  */
 public class TrophonixTXT extends JFrame {
 
-    private class FindEntry {
-
-        final int start;
-        final int end;
-
-        public FindEntry(int start, int end) {
-            this.start = start;
-            this.end = end;
-        }
-
-    }
-
     private static final String TITLE = "TrophonixTXT v1.6 BETA";
     private static final Dimension SIZE = new Dimension(640, 480);
+    private static final int FIND_TYPING_DELAY = 150;
 
     private JPanel mainPanel = new JPanel(new BorderLayout());
 
     private File currentDirectory = new File(".");
     private File currentFile = null;
 
-    private JTextPane textArea = new JTextPane();
+    private JEditorPane textArea = new JEditorPane();
     private JScrollPane scrollPane = new JScrollPane(textArea);
-    private Document textDocument = textArea.getDocument();
-    private UndoManager undoManager = new UndoManager();
+    private LineNumberGutter gutter = new LineNumberGutter(textArea);
+    private PieceTableText textDocument = new PlainTextDocument();
+    private LineIndex lineIndex;
+    private SyntaxHighlighter syntaxHighlighter;
+    private Theme theme;
+    private ChangeTracker changeTracker;
+    private EditHistory undoManager;
+    private UndoableEditListener undoListener = event -> {
+        undoManager.undoableEditHappened(event);
+        checkForChanges();
+    };
 
-    private String lastSaved;
-
-    private static Highlighter.HighlightPainter defaultHighlighter = DefaultHighlighter.DefaultPainter;
-    private static Highlighter.HighlightPainter selectedHighlighter = new DefaultHighlighter.DefaultHighlightPainter(Color.YELLOW);
 
     private boolean finding;
     private String lastFind;
     private int findScrollIndex;
-    private List<FindEntry> findIndexes = new ArrayList<>();
+    private final FindEngine findEngine = new FindEngine();
+    private MatchList findMatches = new MatchList();
+    private final MatchHighlighter matchHighlighter = new MatchHighlighter();
+    private FindTask findTask;
+    // Offset the next search starts showing matches from
+    private int findAnchor;
+    private FindEngine.Query findQuery;
+    private MatchIndex matchIndex;
+    private boolean findScrolls;
+    private boolean findRefreshPending;
+    // The last search was stopped early and only found some of the matches
+    private boolean findPartial;
+    // Bumped for every search, so results from older ones are dropped
+    private int findSequence;
+    // When the search text last changed, when the running search was asked
+    // for, and how long after that its first hit showed up
+    private long findTypedAt;
+    private long findRequestedAt;
+    private long findFirstHitNanos = -1;
+    private final Timer findTypingTimer = new Timer(FIND_TYPING_DELAY, event -> findAsYouType());
+    private final MatchIndex.Listener matchListener = new MatchIndex.Listener() {
+        @Override
+        public void matchesChanged(int index, int removed, int added) {
+            if (findScrollIndex >= index + removed) {
+                findScrollIndex += added - removed;
+            } else if (findScrollIndex >= index) {
+                findScrollIndex = Math.min(findScrollIndex, index + added - 1);
+            }
+            matchHighlighter.setMatches(findMatches, findScrollIndex);
+        }
+
+        @Override
+        public void searchNeeded() {
+            if (findRefreshPending) return;
+            findRefreshPending = true;
+            EventQueue.invokeLater(() -> refreshFind());
+        }
+    };
+    private boolean replaceAllPending;
     private static boolean findIgnoreCase = false;
     private boolean lastFindIgnoreCase = findIgnoreCase;
 
@@ -68,36 +106,47 @@ public class TrophonixTXT extends JFrame {
 
     private JPanel findPanel;
     private JTextField findTextField;
+    // Turns into a Stop button while a search is running
+    private JButton findButton;
 
     private JPanel replacePanel;
     private JTextField replaceTextField;
 
-    private File configFile;
-    private Properties config;
+    private StatusBar statusBar = new StatusBar();
+    private final Diagnostics diagnostics = new Diagnostics();
+    private final ChangeNotifier changeNotifier = new ChangeNotifier(this::updateWindow, diagnostics);
+    private final List<EditorTab> tabs = new ArrayList<>();
+    private final JTabbedPane tabbedPane = new JTabbedPane(JTabbedPane.TOP, JTabbedPane.SCROLL_TAB_LAYOUT);
+    // The tab showing, whose document and find state are in the fields above
+    private EditorTab activeTab;
+    // The active tab's document isn't loaded yet, and an empty one stands in for it
+    private boolean placeholder;
+    // The file loading is being opened, rather than loaded again for a tab that was unloaded
+    private boolean opening;
+    // Tabs with unsaved work from the last session, until it's recovered or not
+    private List<EditorTab> recovered = Collections.emptyList();
+    private final MemoryManager memoryManager = new MemoryManager(tabs, () -> activeTab);
+    private String titleName = "New File";
+    private FileLoader loader;
+    private LargeFileViewer largeFileViewer;
+    private boolean wordWrap;
+    private boolean lineNumbers = true;
+
+    private final Settings settings = new Settings(new File(System.getProperty("user.home"),
+            "trophonix" + File.separator + "txt" + File.separator + "config.properties"));
+    private final FontCatalog fontCatalog = new FontCatalog(new File(System.getProperty("user.home"),
+            "trophonix" + File.separator + "txt" + File.separator + "fonts.cache"));
 
     public TrophonixTXT() {
         super(TITLE + " (New File)");
-
-        configFile = new File(System.getProperty("user.home"), "trophonix" + File.separator + "txt" + File.separator + "config.properties");
-        if (!configFile.exists()) {
-            configFile.getParentFile().mkdirs();
-            try {
-                configFile.createNewFile();
-            } catch (IOException ex) {
-                ex.printStackTrace();
-            }
-        }
-
-        config = new Properties();
-        try {
-            config.load(new FileInputStream(configFile));
-        } catch (IOException ex) {
-            ex.printStackTrace();
-        }
+        fontCatalog.start();
 
         mainPanel.setBorder(null);
         scrollPane.setBorder(null);
         textArea.setBorder(new EmptyBorder(5, 10, 5, 10));
+        textArea.setHighlighter(matchHighlighter);
+        // Lets a styled document pick up the pane's font, as a JTextPane would
+        textArea.putClientProperty(JEditorPane.HONOR_DISPLAY_PROPERTIES, Boolean.TRUE);
 
         setLayout(new BorderLayout());
 
@@ -110,14 +159,8 @@ public class TrophonixTXT extends JFrame {
 
         JMenuItem newItem = new JMenuItem("New", KeyEvent.VK_N);
         newItem.addActionListener(event -> {
-            if (confirmClose()) {
-                textArea.setText("");
-                setTitle(TITLE + " (New File)");
-                currentDirectory = null;
-                currentFile = null;
-                lastSaved = null;
-                undoManager.discardAllEdits();
-            }
+            selectTab(addTab());
+            activeTab.journal.start(textDocument, null, false);
         });
         newItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_N, Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()));
         fileMenu.add(newItem);
@@ -142,9 +185,18 @@ public class TrophonixTXT extends JFrame {
         saveAsItem.addActionListener(event -> openFileSaver());
         fileMenu.add(saveAsItem);
 
+        JMenuItem closeTabItem = new JMenuItem("Close Tab", KeyEvent.VK_C);
+        closeTabItem.addActionListener(event -> closeTab());
+        closeTabItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_W, Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()));
+        fileMenu.add(closeTabItem);
+
         JMenuItem exitItem = new JMenuItem("Exit", KeyEvent.VK_X);
         exitItem.addActionListener(event -> {
-            if (confirmClose()) dispose();
+            if (confirmClose()) {
+                discardJournals();
+                settings.flush();
+                dispose();
+            }
         });
         fileMenu.add(exitItem);
 
@@ -168,11 +220,18 @@ public class TrophonixTXT extends JFrame {
         wordWrapItem.setMnemonic(KeyEvent.VK_W);
         wordWrapItem.addActionListener(event -> {
             wrap(wordWrapItem.getState());
-            config.setProperty("wordWrap", Boolean.toString(wordWrapItem.getState()));
-            saveConfig();
+            settings.set("wordWrap", wordWrapItem.getState());
         });
         editMenu.add(wordWrapItem);
 
+        JCheckBoxMenuItem lineNumbersItem = new JCheckBoxMenuItem("Line Numbers", true);
+        lineNumbersItem.setMnemonic(KeyEvent.VK_L);
+        lineNumbersItem.addActionListener(event -> {
+            showLineNumbers(lineNumbersItem.getState());
+            settings.set("lineNumbers", lineNumbersItem.getState());
+        });
+        editMenu.add(lineNumbersItem);
+
         editMenu.add(new JSeparator());
 
         JMenuItem selectAllItem = new JMenuItem("Select All", KeyEvent.VK_A);
@@ -202,141 +261,21 @@ public class TrophonixTXT extends JFrame {
 
         editMenu.add(new JSeparator());
 
-        findContainer = new JPanel(new BorderLayout());
-
-        findPanel = new JPanel(new BorderLayout());
-        findPanel.setBorder(null);
-
-        findTextField = new JTextField();
-        findTextField.addActionListener((event) -> find(false));
-        findPanel.add(findTextField, BorderLayout.CENTER);
-
-        UndoManager findUndoManager = new UndoManager();
-
-        findTextField.getDocument().addUndoableEditListener(event -> findUndoManager.addEdit(event.getEdit()));
-
-        findTextField.getActionMap().put("undo", new AbstractAction() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                if (findUndoManager.canUndo()) {
-                    findUndoManager.undo();
-                }
-            }
-        });
-        findTextField.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()), "undo");
-
-        findTextField.getActionMap().put("redo", new AbstractAction() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                if (findUndoManager.canRedo()) {
-                    findUndoManager.redo();
-                }
-            }
-        });
-        findTextField.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, Toolkit.getDefaultToolkit().getMenuShortcutKeyMask() | InputEvent.SHIFT_DOWN_MASK), "redo");
-
-        JPanel findButtonsPanel = new JPanel(new BorderLayout());
-
-        JCheckBox findCaseSensitive = new JCheckBox("Ignore Case");
-        findCaseSensitive.addActionListener(e -> {
-            findIgnoreCase = !findIgnoreCase;
-            findTextField.requestFocusInWindow();
-            find(false);
-        });
-        findButtonsPanel.add(findCaseSensitive, BorderLayout.WEST);
-
-        JButton findButton = new JButton("Find");
-        findButton.addActionListener((event) -> find(false));
-        findButtonsPanel.add(findButton, BorderLayout.CENTER);
-
-        ImageIcon xIcon = null, xHoverIcon = null;
-        try {
-            xIcon = new ImageIcon(ImageIO.read(getClass().getResource("resources/x.png")));
-            xHoverIcon = new ImageIcon(ImageIO.read(getClass().getResource("resources/x_hover.png")));
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        JButton closeFindButton = new JButton();
-        try {
-            closeFindButton.setIcon(xIcon);
-            closeFindButton.setBorder(new EmptyBorder(3, 3, 3, 7));
-        } catch (Exception ex) {
-            ex.printStackTrace();
-        }
-        ImageIcon finalXHoverIcon = xHoverIcon;
-        ImageIcon finalXIcon = xIcon;
-        closeFindButton.addMouseListener(new MouseAdapter() {
-            @Override
-            public void mouseEntered(MouseEvent e) {
-                closeFindButton.setIcon(finalXHoverIcon);
-                closeFindButton.setBorder(new EmptyBorder(3, 3, 3, 7));
-            }
-
-            @Override
-            public void mouseExited(MouseEvent e) {
-                closeFindButton.setIcon(finalXIcon);
-                closeFindButton.setBorder(new EmptyBorder(3, 3, 3, 7));
-            }
-        });
-        closeFindButton.addActionListener((event) -> toggleFind());
-        findButtonsPanel.add(closeFindButton, BorderLayout.EAST);
-
-        findPanel.add(findButtonsPanel, BorderLayout.EAST);
-
         JMenuItem findItem = new JMenuItem("Find", KeyEvent.VK_F);
         findItem.addActionListener(event -> toggleFind());
         findItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F, Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()));
         editMenu.add(findItem);
 
-        replacePanel = new JPanel(new BorderLayout());
-        replacePanel.setBorder(null);
-
-        replaceTextField = new JTextField();
-        replaceTextField.addActionListener(event -> replace());
-        replacePanel.add(replaceTextField, BorderLayout.CENTER);
-
-        UndoManager replaceUndoManager = new UndoManager();
-
-        replaceTextField.getDocument().addUndoableEditListener(event -> replaceUndoManager.addEdit(event.getEdit()));
-
-        replaceTextField.getActionMap().put("undo", new AbstractAction() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                if (replaceUndoManager.canUndo()) {
-                    replaceUndoManager.undo();
-                }
-            }
-        });
-        replaceTextField.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()), "undo");
-
-        replaceTextField.getActionMap().put("redo", new AbstractAction() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                if (replaceUndoManager.canRedo()) {
-                    replaceUndoManager.redo();
-                }
-            }
-        });
-        replaceTextField.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, Toolkit.getDefaultToolkit().getMenuShortcutKeyMask() | InputEvent.SHIFT_DOWN_MASK), "redo");
-
-        JPanel replaceButtonPanel = new JPanel(new BorderLayout());
-
-        JButton replaceButton = new JButton("Replace");
-        replaceButton.addActionListener(event -> replace());
-        replaceButtonPanel.add(replaceButton, BorderLayout.WEST);
-
-        JButton replaceAllButton = new JButton("Replace All");
-        replaceAllButton.addActionListener(event -> replaceAll());
-        replaceButtonPanel.add(replaceAllButton, BorderLayout.EAST);
-
-        replacePanel.add(replaceButtonPanel, BorderLayout.EAST);
-
         JMenuItem replaceItem = new JMenuItem("Replace");
         replaceItem.addActionListener(event -> toggleReplace());
         replaceItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_R, Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()));
         editMenu.add(replaceItem);
 
+        JMenuItem goToLineItem = new JMenuItem("Go To Line", KeyEvent.VK_G);
+        goToLineItem.addActionListener(event -> goToLine());
+        goToLineItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_G, Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()));
+        editMenu.add(goToLineItem);
+
         editMenu.addMenuListener(new MenuListener() {
             @Override
             public void menuSelected(MenuEvent menuEvent) {
@@ -347,6 +286,8 @@ public class TrophonixTXT extends JFrame {
 
                 undoItem.setEnabled(undoManager.canUndo());
                 redoItem.setEnabled(undoManager.canRedo());
+                undoItem.setToolTipText(String.format("Undo history: %.1f of %.1f MB",
+                        undoManager.getBytes() / 1e6, undoManager.getBudget() / 1e6));
             }
 
             public void menuDeselected(MenuEvent menuEvent) {}
@@ -367,68 +308,27 @@ public class TrophonixTXT extends JFrame {
 
         ButtonGroup themeGroup = new ButtonGroup();
 
-        JRadioButtonMenuItem lightCheckBoxItem = new JRadioButtonMenuItem("Light");
-        lightCheckBoxItem.addItemListener((event) -> {
-            if (lightCheckBoxItem.isSelected()) {
-                menuBar.setBackground(new Color(224, 224, 224));
-                menuBar.setForeground(Color.BLACK);
-                textArea.setBackground(Color.WHITE);
-                defaultHighlighter = new DefaultHighlighter.DefaultHighlightPainter(new Color(0, 153, 255));
-                selectedHighlighter = new DefaultHighlighter.DefaultHighlightPainter(new Color(51, 204, 255));
-                MutableAttributeSet attrs = textArea.getInputAttributes();
-                StyleConstants.setForeground(attrs, Color.BLACK);
-                StyledDocument doc = textArea.getStyledDocument();
-                doc.setCharacterAttributes(0, doc.getLength() + 1, attrs, false);
-                repaint();
-                config.setProperty("theme", "light");
-                saveConfig();
-            }
-        });
-        themeItem.add(lightCheckBoxItem);
-        themeGroup.add(lightCheckBoxItem);
-
-        JRadioButtonMenuItem darkCheckBoxItem = new JRadioButtonMenuItem("Dark");
-        darkCheckBoxItem.addItemListener(event -> {
-            if (darkCheckBoxItem.isSelected()) {
-                menuBar.setBackground(Color.BLACK);
-                menuBar.setForeground(Color.WHITE);
-                textArea.setBackground(new Color(66, 66, 66));
-                defaultHighlighter = new DefaultHighlighter.DefaultHighlightPainter(new Color(180, 180, 180));
-                selectedHighlighter = new DefaultHighlighter.DefaultHighlightPainter(new Color(140, 140, 140));
-                MutableAttributeSet attrs = textArea.getInputAttributes();
-                StyleConstants.setForeground(attrs, Color.WHITE);
-                StyledDocument doc = textArea.getStyledDocument();
-                doc.setCharacterAttributes(0, doc.getLength() + 1, attrs, false);
-                repaint();
-                config.setProperty("theme", "dark");
-                saveConfig();
-            }
-        });
-        themeItem.add(darkCheckBoxItem);
-        themeGroup.add(darkCheckBoxItem);
-
-        JRadioButtonMenuItem indigoCheckBoxItem = new JRadioButtonMenuItem("Indigo");
-        indigoCheckBoxItem.addItemListener(event -> {
-            if (indigoCheckBoxItem.isSelected()) {
-                menuBar.setBackground(new Color(48, 63, 159));
-                menuBar.setForeground(Color.WHITE);
-                textArea.setBackground(new Color(63, 81, 181));
-                defaultHighlighter = new DefaultHighlighter.DefaultHighlightPainter(new Color(200, 200, 200));
-                selectedHighlighter = new DefaultHighlighter.DefaultHighlightPainter(new Color(160, 160, 160));
-                MutableAttributeSet attrs = textArea.getInputAttributes();
-                StyleConstants.setForeground(attrs, Color.WHITE);
-                StyledDocument doc = textArea.getStyledDocument();
-                doc.setCharacterAttributes(0, doc.getLength() + 1, attrs, false);
-                repaint();
-                config.setProperty("theme", "indigo");
-                saveConfig();
-            }
-        });
-        themeItem.add(indigoCheckBoxItem);
-        themeGroup.add(indigoCheckBoxItem);
+        for (Theme theme : Theme.load()) {
+            JRadioButtonMenuItem item = new JRadioButtonMenuItem(theme.name);
+            item.setActionCommand(theme.id);
+            item.addItemListener(event -> {
+                if (item.isSelected()) {
+                    applyTheme(theme);
+                    settings.set("theme", theme.id);
+                }
+            });
+            themeItem.add(item);
+            themeGroup.add(item);
+        }
 
         viewMenu.add(themeItem);
 
+        viewMenu.add(new JSeparator());
+
+        JMenuItem diagnosticsItem = new JMenuItem("Diagnostics", KeyEvent.VK_D);
+        diagnosticsItem.addActionListener(event -> diagnostics.show(this));
+        viewMenu.add(diagnosticsItem);
+
         /* <----- Add Menus to MenuBar -----> */
         menuBar.add(fileMenu);
         menuBar.add(editMenu);
@@ -437,13 +337,26 @@ public class TrophonixTXT extends JFrame {
         /* <----- Set MenuBar -----> */
         setJMenuBar(menuBar);
 
-        mainPanel.add(scrollPane, BorderLayout.CENTER);
+        JPanel editorPanel = new JPanel(new BorderLayout());
+        editorPanel.add(tabbedPane, BorderLayout.NORTH);
+        editorPanel.add(scrollPane, BorderLayout.CENTER);
+        mainPanel.add(editorPanel, BorderLayout.CENTER);
+        mainPanel.add(statusBar, BorderLayout.SOUTH);
+        tabbedPane.setVisible(false);
+        tabbedPane.addChangeListener(event -> {
+            Component selected = tabbedPane.getSelectedComponent();
+            for (EditorTab tab : tabs) {
+                if (tab.placeholder == selected) selectTab(tab);
+            }
+        });
 
         InputMap map = textArea.getInputMap(JComponent.WHEN_FOCUSED);
         map.put(KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0, false), new AbstractAction() {
             @Override
             public void actionPerformed(ActionEvent actionEvent) {
                 if (confirmClose()) {
+                    discardJournals();
+                    settings.flush();
                     setVisible(false);
                     dispose();
                 }
@@ -455,7 +368,8 @@ public class TrophonixTXT extends JFrame {
             @Override
             public void windowClosing(WindowEvent e) {
                 if (confirmClose()) {
-                    saveConfig();
+                    discardJournals();
+                    settings.flush();
                     setVisible(false);
                     dispose();
                 }
@@ -467,8 +381,6 @@ public class TrophonixTXT extends JFrame {
             public void windowActivated(WindowEvent e) {}
             public void windowDeactivated(WindowEvent e) {}
         });
-        setLocationRelativeTo(null);
-        setVisible(true);
         if (System.getProperty("os.name").startsWith("Mac OS X")) {
             MacUtil.enableOSXFullscreen(this);
             MacUtil.enableOSXQuitStrategy();
@@ -483,64 +395,176 @@ public class TrophonixTXT extends JFrame {
             }
         });
 
-        textArea.addKeyListener(new KeyListener() {
-            @Override
-            public void keyTyped(KeyEvent keyEvent) {
-                checkForChanges();
-            }
+        textArea.addCaretListener(event -> checkForChanges());
+        StartupProfiler.phase("menus");
 
-            public void keyPressed(KeyEvent keyEvent) {}
-            public void keyReleased(KeyEvent keyEvent) {}
-        });
+        /* <----- Get Properties -----> */
+        // Applied before the frame is shown, so its first paint already has them
+        String fontFamily = settings.getString("fontFamily", null);
+        if (fontFamily != null) {
+            Font current = textArea.getFont();
+            textArea.setFont(fontCatalog.font(fontFamily, settings.getInt("fontStyle", current.getStyle()),
+                    settings.getInt("fontSize", current.getSize())));
+        }
+        findEngine.setTimeLimit(findTimeLimit());
+        memoryManager.setThreshold(memoryThreshold());
+        wordWrap = settings.getBoolean("wordWrap", false);
+        wordWrapItem.setState(wordWrap);
+        lineNumbers = settings.getBoolean("lineNumbers", true);
+        lineNumbersItem.setState(lineNumbers);
+
+        String theme = settings.getString("theme", null);
+        JMenuItem selected = themeItem.getItemCount() > 0 ? themeItem.getItem(0) : null;
+        for (int i = 0; i < themeItem.getItemCount(); i++) {
+            JMenuItem item = themeItem.getItem(i);
+            if (item.getActionCommand().equalsIgnoreCase(theme)) selected = item;
+        }
+        if (selected != null) selected.setSelected(true);
+        StartupProfiler.phase("settings");
+
+        // Read first, so the new tab's journal doesn't take one of their slots
+        recovered = readRecoveries();
+        selectTab(addTab());
+        StartupProfiler.phase("document");
 
         add(mainPanel);
         setSize(SIZE);
         setPreferredSize(SIZE);
         pack();
         setLocationRelativeTo(null);
+        setVisible(true);
+        StartupProfiler.phase("frame shown");
 
-        /* <----- Setup Undo/Redo -----> */
-        textDocument.addUndoableEditListener(event -> {
-            undoManager.addEdit(event.getEdit());
-            checkForChanges();
-        });
+        memoryManager.start();
+        EventQueue.invokeLater(this::offerRecovery);
+    }
 
-        /* <----- Get Properties -----> */
-        EventQueue.invokeLater(() -> {
-            if (config.getProperty("fontFamily") != null) {
-                Font font = new Font(config.getProperty("fontFamily"), Integer.parseInt(config.getProperty("fontStyle")), Integer.parseInt(config.getProperty("fontSize")));
-                textArea.setFont(font);
-            }
+    /**
+     * Records the first paint of the window as the end of startup.
+     */
+    @Override
+    public void paint(Graphics g) {
+        super.paint(g);
+        StartupProfiler.firstFrame(TITLE);
+    }
 
-            if (config.getProperty("wordWrap") != null) {
-                boolean wordWrap = Boolean.parseBoolean(config.getProperty("wordWrap"));
-                wrap(wordWrap);
-                wordWrapItem.setState(wordWrap);
-            } else {
-                wrap(false);
-            }
+    private void checkForChanges() {
+        changeNotifier.changed();
+    }
 
-            if (config.getProperty("theme") != null) {
-                String theme = config.getProperty("theme");
-                for (int i = 0; i < themeItem.getItemCount(); i++) {
-                    JRadioButtonMenuItem item = (JRadioButtonMenuItem) themeItem.getItem(i);
-                    if (item.getText().equalsIgnoreCase(theme)) {
-                        item.setSelected(true);
-                    }
-                }
-            } else {
-                lightCheckBoxItem.setSelected(true);
+    private void showTitle(String name) {
+        titleName = name;
+        changeNotifier.flush();
+    }
+
+    /**
+     * Brings the title and the status bar up to date with the document, once
+     * per batch of changes from {@link ChangeNotifier}.
+     */
+    private void updateWindow() {
+        String name = titleName + (isDirty(activeTab) ? "*" : "");
+        String title = TITLE + " (" + name + ")";
+        if (!title.equals(getTitle())) setTitle(title);
+        showTabTitle(activeTab, name);
+        if (largeFileViewer != null || lineIndex == null || placeholder) {
+            statusBar.setPosition("");
+            return;
+        }
+        int dot = Math.min(textArea.getCaretPosition(), textDocument.getLength());
+        int line = lineIndex.getLineOfOffset(dot);
+        statusBar.setPosition("Ln " + (line + 1) + ", Col " + (dot - lineIndex.getLineStartOffset(line) + 1));
+    }
+
+    private void showTabTitle(EditorTab tab, String name) {
+        int index = tabbedPane.indexOfComponent(tab.placeholder);
+        if (index < 0) return;
+        if (!name.equals(tabbedPane.getTitleAt(index))) tabbedPane.setTitleAt(index, name);
+        File file = tab == activeTab ? currentFile : tab.file;
+        String path = file != null ? file.getPath() : null;
+        if (!Objects.equals(path, tabbedPane.getToolTipTextAt(index))) tabbedPane.setToolTipTextAt(index, path);
+    }
+
+    /**
+     * Reads the journals the last session left in the recovery directory, one
+     * per tab, into tabs that take the same slots.
+     */
+    private List<EditorTab> readRecoveries() {
+        List<EditorTab> found = new ArrayList<>();
+        File[] directories = RecoveryJournal.defaultDirectory().listFiles(File::isDirectory);
+        if (directories == null) return found;
+        for (File directory : directories) {
+            int slot;
+            try {
+                slot = Integer.parseInt(directory.getName());
+            } catch (NumberFormatException ex) {
+                continue;
             }
-        });
+            RecoveryJournal journal = new RecoveryJournal(directory);
+            RecoveryJournal.Recovery recovery = journal.read();
+            if (recovery == null) continue;
+            EditorTab tab = new EditorTab(slot, journal, null);
+            tab.file = recovery.file;
+            tab.titleName = recovery.file != null ? recovery.file.getName() : "New File";
+            tab.pendingRecovery = recovery;
+            found.add(tab);
+        }
+        found.sort(Comparator.comparingInt(tab -> tab.slot));
+        return found;
+    }
 
+    /**
+     * Offers to bring back what the last session left unsaved, if anything,
+     * and starts logging the document either way. Recovered tabs take the
+     * place of the empty one the editor started with, and are only recovered
+     * once they're shown.
+     */
+    private void offerRecovery() {
+        List<EditorTab> found = recovered;
+        if (found.isEmpty()) {
+            activeTab.journal.start(textDocument, null, false);
+            return;
+        }
+        List<String> names = new ArrayList<>();
+        for (EditorTab tab : found) names.add(tab.file != null ? tab.file.getName() : "a new file");
+        JFrame chooser = makeChooserFrame();
+        chooser.setVisible(true);
+        int input = JOptionPane.showOptionDialog(chooser, "TrophonixTXT didn't close properly. Recover the unsaved changes to " + String.join(", ", names) + "?", "Recover Unsaved Changes?", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE, null, new Object[]{"Recover", "Discard"}, "Recover");
+        chooser.setVisible(false);
+        chooser.dispose();
+        // Their slots are free once they're open or gone
+        recovered = Collections.emptyList();
+        if (input != 0) {
+            for (EditorTab tab : found) tab.journal.discard();
+            activeTab.journal.start(textDocument, null, false);
+            return;
+        }
+        EditorTab empty = activeTab;
+        for (EditorTab tab : found) addTab(tab);
+        selectTab(found.get(0));
+        if (empty.isDirty()) {
+            // Typed into while the question was up
+            empty.journal.start(empty.document, null, false);
+        } else {
+            removeTab(empty);
+        }
     }
 
-    private void checkForChanges() {
-        EventQueue.invokeLater(() -> {
-            if ((lastSaved == null && textArea.getText().trim().isEmpty()) || textArea.getText().equals(lastSaved))
-                setTitle(getTitle().replace("*)", ")"));
-            else if (!getTitle().endsWith("*)")) setTitle(getTitle().replace(")", "*)"));
-        });
+    /**
+     * Makes the recovered edits as one undoable step, so they're unsaved
+     * changes to the document as it was opened.
+     */
+    private void replayRecovery(RecoveryJournal.Recovery recovery) {
+        undoManager.beginGroup();
+        try {
+            recovery.replay(textDocument);
+            statusBar.setMessage("Recovered unsaved changes");
+        } catch (BadLocationException ex) {
+            ex.printStackTrace();
+            statusBar.setMessage("Couldn't recover every change");
+        } finally {
+            undoManager.endGroup();
+        }
+        checkForChanges();
     }
 
     private void openFileChooser() {
@@ -551,110 +575,731 @@ public class TrophonixTXT extends JFrame {
         if (input == JFileChooser.APPROVE_OPTION) {
             File file = chooser.getSelectedFile();
             if (file != null) {
-                try {
-                    textArea.setText("");
-                    currentDirectory = file.getParentFile();
-                    textArea.read(new FileReader(file), "Opening File for TrophonixTXT");
-                    lastSaved = textArea.getText();
-                    currentFile = file;
-                    setTitle(TITLE + " (" + file.getName() + ")");
-                } catch (IOException ex) {
-                    ex.printStackTrace();
-                }
+                currentDirectory = file.getParentFile();
+                openFile(file);
             }
         }
         fileFrame.setVisible(false);
         fileFrame.dispose();
     }
 
-    private void openFileSaver() {
-        JFrame fileFrame = makeChooserFrame();
-        JFileChooser chooser = new JFileChooser();
-        chooser.setCurrentDirectory(currentDirectory);
-        chooser.setSelectedFile(currentFile);
-        int input = chooser.showSaveDialog(fileFrame);
-        if (input == JFileChooser.APPROVE_OPTION) {
-            File file = chooser.getSelectedFile();
-            if (file != null) {
-                currentFile = file;
-                if (!currentFile.exists() || confirmOverwrite(currentFile)) {
-                    saveCurrentFile();
-                }
+    /**
+     * Opens {@code file} in a tab of its own, or shows the tab it's already
+     * open in. An empty, untouched tab is used rather than adding one.
+     */
+    private void openFile(File file) {
+        File path = file.getAbsoluteFile();
+        for (EditorTab tab : tabs) {
+            File open = tab == activeTab ? currentFile : tab.file;
+            if (open != null && open.getAbsoluteFile().equals(path)) {
+                selectTab(tab);
+                return;
             }
         }
-        fileFrame.setVisible(false);
-        fileFrame.dispose();
+        if (!isUntouched()) selectTab(addTab());
+        if (file.length() > largeFileThreshold()) {
+            openLargeFile(file);
+            return;
+        }
+        currentFile = file;
+        showTitle(file.getName());
+        placeholder = true;
+        opening = true;
+        loadFile(file);
     }
 
-    private void saveCurrentFile() {
+    /**
+     * Loads {@code file} into the active tab in the background. The tab
+     * can't be edited until it's done.
+     */
+    private void loadFile(File file) {
+        if (loader != null) loader.cancel(true);
+        textArea.setEditable(false);
+        FileLoader fileLoader = new FileLoader(file, FileLoader.DEFAULT_CHARSET, styledText());
+        loader = fileLoader;
+        long started = System.nanoTime();
+        fileLoader.addPropertyChangeListener(event -> {
+            if ("progress".equals(event.getPropertyName())) {
+                statusBar.setProgress((Integer) event.getNewValue());
+            } else if (fileLoader.isDone()) {
+                finishLoading(fileLoader, started);
+            }
+        });
+        statusBar.startTask("Opening " + file.getName() + "...", () -> fileLoader.cancel(true));
+        fileLoader.execute();
+    }
+
+    private void finishLoading(FileLoader fileLoader, long started) {
+        if (fileLoader != loader) return;
+        loader = null;
+        File file = fileLoader.getFile();
+        if (fileLoader.isCancelled()) {
+            statusBar.endTask("Stopped opening " + file.getName());
+            loadFailed();
+            return;
+        }
         try {
-            String name = currentFile.getName();
-            if (!name.contains("."))
-                name += ".txt";
-            currentFile = new File(currentFile.getParent(), name);
-            if (!currentFile.exists()) {
-                currentFile.getParentFile().mkdirs();
-                currentFile.createNewFile();
-            }
-            FileWriter fileWriter = new FileWriter(currentFile);
-            textArea.write(fileWriter);
-            fileWriter.close();
-            lastSaved = textArea.getText();
-            setTitle(TITLE + " (" + name + ")");
-        } catch (IOException ex) {
+            PieceTableText document = fileLoader.get();
+            closeLargeFile();
+            installDocument(document);
+            placeholder = false;
+            opening = false;
+            textArea.setEditable(true);
+            textArea.setCaretPosition(Math.min(activeTab.dot, textDocument.getLength()));
+            currentFile = file;
+            highlightSyntax();
+            showTitle(file.getName());
+            statusBar.endTask("Opened " + file.getName() + " in " + (System.nanoTime() - started) / 1_000_000 + " ms");
+            activeTab.journal.start(textDocument, file, true);
+            RecoveryJournal.Recovery recovery = activeTab.pendingRecovery;
+            activeTab.pendingRecovery = null;
+            if (recovery != null && file.equals(recovery.base)) replayRecovery(recovery);
+        } catch (InterruptedException | ExecutionException ex) {
             ex.printStackTrace();
+            statusBar.endTask("Couldn't open " + file.getName() + ": " + ex.getCause());
+            loadFailed();
         }
     }
 
-    private boolean confirmClose() {
-        if (lastSaved == null && textArea.getText().isEmpty()) return true;
-        if (!textArea.getText().equals(lastSaved)) {
-            JFrame chooser = makeChooserFrame();
-            chooser.setVisible(true);
-            int input = JOptionPane.showOptionDialog(chooser, "Do you want to exit without saving?", "You Haven't Saved!", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE, null, new Object[]{"Yes, exit", "No, I want to save!"}, "Yes, exit");
-            chooser.setVisible(false);
-            chooser.dispose();
-            return input == 0;
+    /**
+     * Gives up on a file that didn't load. A tab opened for it is closed again,
+     * but a tab that was unloaded waits, read only, to be shown again.
+     */
+    private void loadFailed() {
+        if (!opening) return;
+        opening = false;
+        EditorTab failed = activeTab;
+        if (tabs.size() > 1) {
+            int index = tabs.indexOf(failed);
+            selectTab(tabs.get(index > 0 ? index - 1 : 1));
+            removeTab(failed);
+        } else {
+            installDocument(newDocument());
+            placeholder = false;
+            textArea.setEditable(true);
+            currentFile = null;
+            showTitle("New File");
+            failed.journal.start(textDocument, null, false);
         }
-        return true;
     }
 
-    private boolean confirmOverwrite(File file) {
-        JFrame chooser = makeChooserFrame();
-        chooser.setVisible(true);
-        int input = JOptionPane.showOptionDialog(chooser, "Do you want to overwrite " + file.getName() + "?", "Overwrite existing file?", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE, null, new Object[]{"Yes", "No"}, "Yes");
-        chooser.setVisible(false);
-        chooser.dispose();
-        return input == 0;
+    /**
+     * Heap used before inactive tabs start giving memory back.
+     */
+    private long memoryThreshold() {
+        return settings.getLong("memoryThreshold", Runtime.getRuntime().maxMemory() / 10 * 7);
     }
 
-    private void undo() {
-        if (undoManager.canUndo()) {
-            undoManager.undo();
-            checkForChanges();
-        }
+    /**
+     * Milliseconds a regex search may run before it stops with what it found.
+     */
+    private long findTimeLimit() {
+        return settings.getLong("findTimeLimit", FindEngine.DEFAULT_TIME_LIMIT);
     }
 
-    private void redo() {
-        if (undoManager.canRedo()) {
-            undoManager.redo();
-            checkForChanges();
-        }
+    /**
+     * Bytes of undo history to keep before the oldest edits are dropped.
+     */
+    private long undoBudget() {
+        return settings.getLong("undoBudget", EditHistory.DEFAULT_BUDGET);
     }
 
-    private void wrap(boolean wordWrap) {
-        if (wordWrap) {
-            scrollPane.setViewportView(textArea);
-        } else {
+    /**
+     * Whether documents are built with the styled model. The editor never sets
+     * character attributes itself, so unless this is turned on text gets the
+     * plain model, which is much lighter to hold and lay out.
+     */
+    private boolean styledText() {
+        return settings.getBoolean("styledText", false);
+    }
+
+    private PieceTableText newDocument() {
+        return styledText() ? new PieceTableDocument() : new PlainTextDocument();
+    }
+
+    /**
+     * Files bigger than this are mapped and shown read-only instead of loaded.
+     */
+    private long largeFileThreshold() {
+        return settings.getLong("largeFileThreshold", Runtime.getRuntime().maxMemory() / 8);
+    }
+
+    private void openLargeFile(File file) {
+        LargeFileViewer viewer;
+        try {
+            viewer = new LargeFileViewer(new MappedTextFile(file, FileLoader.DEFAULT_CHARSET), textArea);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            statusBar.setMessage("Couldn't open " + file.getName() + ": " + ex);
+            return;
+        }
+        if (finding) toggleFind();
+        closeLargeFile();
+        installDocument(newDocument());
+        activeTab.journal.discard();
+        largeFileViewer = viewer;
+        currentFile = file;
+        scrollPane.setViewportView(viewer);
+        scrollPane.setRowHeaderView(null);
+        showTitle(file.getName() + ", read only");
+        showIndexing(viewer);
+        // The viewer may be in a tab that isn't showing by the time these come in
+        viewer.startIndexing(progress -> {
+            if (largeFileViewer == viewer) statusBar.setProgress(progress);
+        }, lines -> {
+            if (largeFileViewer == viewer) statusBar.endTask(file.getName() + ": " + lines + " lines, read only");
+        });
+    }
+
+    private void showIndexing(LargeFileViewer viewer) {
+        String name = viewer.getFile().getFile().getName();
+        statusBar.startTask("Indexing " + name + "...", () -> {
+            viewer.stopIndexing();
+            statusBar.endTask("Stopped indexing " + name + ", read only");
+        });
+    }
+
+    private void closeLargeFile() {
+        if (largeFileViewer == null) return;
+        largeFileViewer.close();
+        largeFileViewer = null;
+        wrap(wordWrap);
+    }
+
+    private boolean isReadOnly() {
+        if (placeholder || loader != null) {
+            statusBar.setMessage(titleName + " hasn't loaded yet");
+            return true;
+        }
+        if (largeFileViewer != null) {
+            statusBar.setMessage(largeFileViewer.getFile().getFile().getName() + " is open read only");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Recolors the window. The text takes its color from the text pane through
+     * {@link ThemedEditorKit}, so the document itself is left alone.
+     */
+    private void applyTheme(Theme theme) {
+        this.theme = theme;
+        JMenuBar menuBar = getJMenuBar();
+        menuBar.setBackground(theme.barBackground);
+        menuBar.setForeground(theme.barForeground);
+        tabbedPane.setBackground(theme.barBackground);
+        tabbedPane.setForeground(theme.barForeground);
+        statusBar.setBackground(theme.barBackground);
+        statusBar.setForeground(theme.barForeground);
+        textArea.setBackground(theme.background);
+        textArea.setForeground(theme.foreground);
+        textArea.setCaretColor(theme.foreground);
+        gutter.setBackground(theme.barBackground);
+        gutter.setForeground(theme.barForeground);
+        matchHighlighter.setPainters(new DefaultHighlighter.DefaultHighlightPainter(theme.match),
+                new DefaultHighlighter.DefaultHighlightPainter(theme.currentMatch));
+        if (syntaxHighlighter != null) syntaxHighlighter.setColors(theme.syntax);
+        repaint();
+    }
+
+    private void installDocument(PieceTableText document) {
+        if (lineIndex != null) lineIndex.detach();
+        lineIndex = null;
+        useDocument(document);
+        showDocument();
+        if (syntaxHighlighter != null) syntaxHighlighter.detach();
+        syntaxHighlighter = null;
+        undoManager.discardAllEdits();
+        changeTracker = new ChangeTracker();
+        changeTracker.markSaved(textDocument);
+        undoManager.setTracker(changeTracker);
+        clearFind();
+    }
+
+    /**
+     * Makes {@code document} the one being edited, with a line index built
+     * for it unless it already has one. Doesn't show it.
+     */
+    private void useDocument(PieceTableText document) {
+        textDocument.removeUndoableEditListener(undoListener);
+        textDocument = document;
+        textDocument.addUndoableEditListener(undoListener);
+        if (lineIndex == null) {
+            lineIndex = new LineIndex(textDocument);
+            lineIndex.attach();
+        }
+        gutter.setLineIndex(textDocument, lineIndex);
+    }
+
+    private EditorTab addTab() {
+        int slot = 0;
+        while (slotTaken(slot)) slot++;
+        File directory = new File(RecoveryJournal.defaultDirectory(), String.valueOf(slot));
+        return addTab(new EditorTab(slot, new RecoveryJournal(directory), newDocument()));
+    }
+
+    private boolean slotTaken(int slot) {
+        for (EditorTab tab : tabs) if (tab.slot == slot) return true;
+        for (EditorTab tab : recovered) if (tab.slot == slot) return true;
+        return false;
+    }
+
+    private EditorTab addTab(EditorTab tab) {
+        tabs.add(tab);
+        tabbedPane.addTab(tab.titleName, tab.placeholder);
+        // The strip only shows once there's more than one document
+        tabbedPane.setVisible(tabs.size() > 1);
+        return tab;
+    }
+
+    private void removeTab(EditorTab tab) {
+        tabbedPane.remove(tab.placeholder);
+        tabs.remove(tab);
+        tabbedPane.setVisible(tabs.size() > 1);
+        tab.close();
+    }
+
+    /**
+     * Shows {@code tab}, putting the one showing now away first.
+     */
+    private void selectTab(EditorTab tab) {
+        if (tab == activeTab) return;
+        if (activeTab != null) stashTab(activeTab);
+        activeTab = tab;
+        tabbedPane.setSelectedComponent(tab.placeholder);
+        restoreTab(tab);
+    }
+
+    /**
+     * Moves the active document's state from the editor's fields into its tab.
+     * A running search or load is stopped: the search runs again when the tab
+     * comes back, and so does the load.
+     */
+    private void stashTab(EditorTab tab) {
+        if (loader != null) {
+            loader.cancel(true);
+            loader = null;
+            statusBar.endTask(" ");
+        }
+        // Indexing goes on in the background, and shows again with the tab
+        if (largeFileViewer != null && largeFileViewer.isIndexing()) statusBar.endTask(" ");
+        findTypingTimer.stop();
+        boolean searching = findTask != null;
+        stopSearch();
+        tab.file = currentFile;
+        tab.titleName = titleName;
+        tab.changeTracker = changeTracker;
+        tab.undoManager = undoManager;
+        tab.largeFileViewer = largeFileViewer;
+        if (placeholder) {
+            lineIndex.detach();
+            tab.document = null;
+            tab.lineIndex = null;
+        } else {
+            tab.document = textDocument;
+            tab.lineIndex = lineIndex;
+        }
+        tab.syntaxHighlighter = syntaxHighlighter;
+        tab.dot = textArea.getCaret().getDot();
+        tab.mark = textArea.getCaret().getMark();
+        tab.viewPosition = scrollPane.getViewport().getViewPosition();
+        tab.lastFind = lastFind;
+        tab.lastFindIgnoreCase = lastFindIgnoreCase;
+        tab.findScrollIndex = findScrollIndex;
+        tab.findMatches = findMatches;
+        tab.findQuery = findQuery;
+        tab.matchIndex = matchIndex;
+        tab.findPartial = findPartial;
+        tab.findAnchor = findAnchor;
+        // What the stopped search found so far is thrown away, to be searched for again in full
+        if (searching) tab.dropMatches();
+        // Now the tab's, so the next document doesn't detach them
+        matchIndex = null;
+        findQuery = null;
+        tab.lastUsed = System.nanoTime();
+        showTabTitle(tab, tab.titleName + (tab.isDirty() ? "*" : ""));
+    }
+
+    /**
+     * Moves {@code tab}'s state into the editor's fields and shows it. If the
+     * tab was unloaded its document is brought back first: from the snapshot
+     * in its journal if it had unsaved changes, or else from its file, which
+     * is loaded in the background.
+     */
+    private void restoreTab(EditorTab tab) {
+        currentFile = tab.file;
+        titleName = tab.titleName;
+        changeTracker = tab.changeTracker;
+        undoManager = tab.undoManager;
+        undoManager.setBudget(undoBudget());
+        largeFileViewer = tab.largeFileViewer;
+        lineIndex = tab.lineIndex;
+        syntaxHighlighter = tab.syntaxHighlighter;
+        placeholder = false;
+        opening = false;
+        textArea.setEditable(true);
+        RecoveryJournal.Recovery recovery = tab.pendingRecovery;
+        if (tab.document != null) {
+            useDocument(tab.document);
+        } else if (tab.spilled) {
+            restoreSpilled(tab);
+        } else if (recovery != null && recovery.base == null) {
+            installDocument(newDocument());
+            tab.pendingRecovery = null;
+            tab.journal.start(textDocument, currentFile, false);
+            replayRecovery(recovery);
+        } else {
+            installDocument(newDocument());
+            placeholder = true;
+        }
+        // The editor's fields hold them while the tab is showing
+        tab.document = null;
+        tab.lineIndex = null;
+        tab.syntaxHighlighter = null;
+        tab.matchIndex = null;
+
+        if (largeFileViewer != null) {
+            showDocument();
+            scrollPane.setViewportView(largeFileViewer);
+            scrollPane.setRowHeaderView(null);
+            if (largeFileViewer.isIndexing()) showIndexing(largeFileViewer);
+        } else {
+            wrap(wordWrap);
+        }
+        if (!placeholder) {
+            int length = textDocument.getLength();
+            textArea.getCaret().setDot(Math.min(tab.mark, length));
+            textArea.getCaret().moveDot(Math.min(tab.dot, length));
+            Point viewPosition = tab.viewPosition;
+            EventQueue.invokeLater(() -> {
+                if (activeTab == tab && largeFileViewer == null) scrollPane.getViewport().setViewPosition(viewPosition);
+            });
+        }
+        if (syntaxHighlighter == null) {
+            highlightSyntax();
+        } else if (theme != null) {
+            syntaxHighlighter.setColors(theme.syntax);
+        }
+
+        lastFind = tab.lastFind;
+        lastFindIgnoreCase = tab.lastFindIgnoreCase;
+        findScrollIndex = tab.findScrollIndex;
+        findMatches = tab.findMatches;
+        findQuery = tab.findQuery;
+        matchIndex = tab.matchIndex;
+        findPartial = tab.findPartial;
+        findAnchor = tab.findAnchor;
+        matchHighlighter.setMatches(findMatches, findScrollIndex);
+        if (!finding || placeholder) {
+            clearFind();
+        } else {
+            findTextField.setText(lastFind != null ? lastFind : "");
+            if (findQuery != null && matchIndex == null) startSearch(findQuery, false, System.nanoTime());
+        }
+        tab.compacted = false;
+        tab.spilled = false;
+        showTitle(titleName);
+        textArea.requestFocusInWindow();
+        if (placeholder) loadFile(recovery != null ? recovery.base : currentFile);
+    }
+
+    /**
+     * Rebuilds an unloaded tab's document from the snapshot in its journal.
+     * It counts as changed, since the snapshot was only taken because it was.
+     * If the snapshot can't be read back the user is told, and the journal
+     * is left as it is rather than started over the top of it.
+     */
+    private void restoreSpilled(EditorTab tab) {
+        PieceTableText document = newDocument();
+        tab.journal.sync();
+        RecoveryJournal.Recovery recovery = tab.journal.read();
+        String failure = null;
+        if (recovery == null) {
+            // An empty text has no snapshot, so nothing to read is fine
+            if (tab.spilledLength > 0) failure = "its unsaved changes couldn't be read back";
+        } else {
+            try {
+                // Before the document is in use, so it isn't undoable
+                recovery.replay(document);
+            } catch (BadLocationException ex) {
+                ex.printStackTrace();
+                failure = "some of its unsaved changes couldn't be read back";
+            }
+        }
+        installDocument(document);
+        changeTracker.markUnsaved();
+        if (failure == null) {
+            tab.journal.start(textDocument, currentFile, false);
+            return;
+        }
+        statusBar.setMessage("Couldn't restore " + titleName);
+        JFrame chooser = makeChooserFrame();
+        chooser.setVisible(true);
+        JOptionPane.showMessageDialog(chooser, "Couldn't restore " + titleName + ": " + failure + ".",
+                "Couldn't Restore " + titleName, JOptionPane.ERROR_MESSAGE);
+        chooser.setVisible(false);
+        chooser.dispose();
+    }
+
+    private void closeTab() {
+        EditorTab closing = activeTab;
+        if (isDirty(closing) && !confirmDiscard("Do you want to close " + titleName + " without saving?", "Yes, close")) return;
+        int index = tabs.indexOf(closing);
+        boolean last = tabs.size() == 1;
+        selectTab(last ? addTab() : tabs.get(index > 0 ? index - 1 : 1));
+        removeTab(closing);
+        if (last) activeTab.journal.start(textDocument, null, false);
+    }
+
+    /**
+     * Whether the active tab is an empty new file no one has typed in yet.
+     */
+    private boolean isUntouched() {
+        return currentFile == null && largeFileViewer == null && loader == null && !placeholder
+                && textDocument.getLength() == 0 && !undoManager.canUndo() && !isDirty(activeTab);
+    }
+
+    private boolean isDirty(EditorTab tab) {
+        if (tab != activeTab) return tab.isDirty();
+        return tab.pendingRecovery != null || (!placeholder && changeTracker.isDirty(textDocument));
+    }
+
+    private void discardJournals() {
+        memoryManager.stop();
+        for (EditorTab tab : tabs) tab.journal.discard();
+    }
+
+    /**
+     * Colors the text by the current file's type, if there's a tokenizer for
+     * it. Styled documents aren't colored.
+     */
+    private void highlightSyntax() {
+        if (syntaxHighlighter != null) syntaxHighlighter.detach();
+        Tokenizer tokenizer = currentFile == null ? null : Tokenizer.forFile(currentFile.getName());
+        if (tokenizer == null || textDocument instanceof StyledDocument) {
+            syntaxHighlighter = null;
+        } else {
+            syntaxHighlighter = new SyntaxHighlighter(textDocument, tokenizer, textArea);
+            if (theme != null) syntaxHighlighter.setColors(theme.syntax);
+            syntaxHighlighter.attach();
+        }
+        textArea.repaint();
+    }
+
+    /**
+     * Shows the document through the kit that draws it: the styled one only if
+     * it's a styled document. Swapping kits rebuilds the views, so when it's the
+     * same document the selection is put back afterwards.
+     */
+    private void showDocument() {
+        Caret caret = textArea.getCaret();
+        boolean same = textArea.getDocument() == textDocument;
+        int dot = caret.getDot();
+        int mark = caret.getMark();
+        textArea.setEditorKit(textDocument instanceof StyledDocument ? new ThemedEditorKit() : new PlainTextKit(wordWrap));
+        textArea.setDocument(textDocument);
+        if (same) {
+            int length = textDocument.getLength();
+            caret.setDot(Math.min(mark, length));
+            caret.moveDot(Math.min(dot, length));
+        }
+    }
+
+    // Drops the results of the last search, so the next one starts fresh
+    private void clearFind() {
+        stopSearch();
+        if (matchIndex != null) matchIndex.detach();
+        matchIndex = null;
+        findQuery = null;
+        lastFind = null;
+        replaceAllPending = false;
+        findPartial = false;
+        findScrollIndex = -1;
+        findMatches = new MatchList();
+        matchHighlighter.clearMatches();
+    }
+
+    private void openFileSaver() {
+        if (isReadOnly()) return;
+        JFrame fileFrame = makeChooserFrame();
+        JFileChooser chooser = new JFileChooser();
+        chooser.setCurrentDirectory(currentDirectory);
+        chooser.setSelectedFile(currentFile);
+        int input = chooser.showSaveDialog(fileFrame);
+        if (input == JFileChooser.APPROVE_OPTION) {
+            File file = chooser.getSelectedFile();
+            if (file != null) {
+                currentFile = file;
+                if (!currentFile.exists() || confirmOverwrite(currentFile)) {
+                    saveCurrentFile();
+                }
+            }
+        }
+        fileFrame.setVisible(false);
+        fileFrame.dispose();
+    }
+
+    private void saveCurrentFile() {
+        if (isReadOnly()) return;
+        String name = currentFile.getName();
+        if (!name.contains("."))
+            name += ".txt";
+        currentFile = new File(currentFile.getAbsoluteFile().getParent(), name);
+        // A new highlighter starts over on the whole file, so only when the name calls for another
+        Tokenizer tokenizer = Tokenizer.forFile(name);
+        Tokenizer current = syntaxHighlighter != null ? syntaxHighlighter.getTokenizer() : null;
+        if (tokenizer == null ? current != null : current == null || tokenizer.getClass() != current.getClass()) {
+            highlightSyntax();
+        }
+        currentFile.getParentFile().mkdirs();
+        Object charset = textDocument.getProperty(FileLoader.CHARSET_PROPERTY);
+        Object lineSeparator = textDocument.getProperty(DefaultEditorKit.EndOfLineStringProperty);
+        undoManager.breakCoalescing();
+        ChangeTracker.SavePoint savePoint = changeTracker.capture(textDocument);
+        EditorTab tab = activeTab;
+        FileSaver saver = new FileSaver(textDocument.snapshot(), currentFile,
+                charset instanceof Charset ? (Charset) charset : FileLoader.DEFAULT_CHARSET,
+                lineSeparator instanceof String ? (String) lineSeparator : System.lineSeparator());
+        saver.addPropertyChangeListener(event -> {
+            if ("progress".equals(event.getPropertyName())) {
+                statusBar.setProgress((Integer) event.getNewValue());
+            } else if (saver.isDone()) {
+                finishSaving(saver, savePoint, tab);
+            }
+        });
+        statusBar.startTask("Saving " + name + "...", () -> saver.cancel(true));
+        saver.start();
+    }
+
+    private void finishSaving(FileSaver saver, ChangeTracker.SavePoint savePoint, EditorTab tab) {
+        File file = saver.getFile();
+        if (saver.isCancelled()) {
+            statusBar.endTask("Stopped saving " + file.getName());
+            return;
+        }
+        try {
+            long bytes = saver.get();
+            if (tab == activeTab) {
+                changeTracker.markSaved(savePoint);
+                if (file.equals(currentFile)) {
+                    showTitle(file.getName());
+                    tab.journal.start(textDocument, file, !changeTracker.isDirty(textDocument));
+                }
+            } else if (tabs.contains(tab)) {
+                // Saved in the background after another tab was selected
+                tab.changeTracker.markSaved(savePoint);
+                if (file.equals(tab.file)) {
+                    tab.titleName = file.getName();
+                    if (tab.isLoaded()) tab.journal.start(tab.document, file, !tab.isDirty());
+                    showTabTitle(tab, tab.titleName + (tab.isDirty() ? "*" : ""));
+                }
+            }
+            long millis = Math.max(saver.getElapsedNanos() / 1_000_000, 1);
+            statusBar.endTask(String.format("Saved %s (%.1f MB in %d ms, %.1f MB/s)",
+                    file.getName(), bytes / 1e6, millis, bytes / 1e3 / millis));
+        } catch (InterruptedException | ExecutionException ex) {
+            ex.printStackTrace();
+            statusBar.endTask("Couldn't save " + file.getName() + ": " + ex.getCause());
+        }
+    }
+
+    private boolean confirmClose() {
+        for (EditorTab tab : tabs) {
+            if (isDirty(tab)) return confirmDiscard("Do you want to exit without saving?", "Yes, exit");
+        }
+        return true;
+    }
+
+    private boolean confirmDiscard(String message, String yes) {
+        JFrame chooser = makeChooserFrame();
+        chooser.setVisible(true);
+        int input = JOptionPane.showOptionDialog(chooser, message, "You Haven't Saved!", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE, null, new Object[]{yes, "No, I want to save!"}, yes);
+        chooser.setVisible(false);
+        chooser.dispose();
+        return input == 0;
+    }
+
+    private boolean confirmOverwrite(File file) {
+        JFrame chooser = makeChooserFrame();
+        chooser.setVisible(true);
+        int input = JOptionPane.showOptionDialog(chooser, "Do you want to overwrite " + file.getName() + "?", "Overwrite existing file?", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE, null, new Object[]{"Yes", "No"}, "Yes");
+        chooser.setVisible(false);
+        chooser.dispose();
+        return input == 0;
+    }
+
+    private void undo() {
+        if (undoManager.canUndo()) {
+            undoManager.undo();
+            checkForChanges();
+        }
+    }
+
+    private void redo() {
+        if (undoManager.canRedo()) {
+            undoManager.redo();
+            checkForChanges();
+        }
+    }
+
+    private void wrap(boolean wordWrap) {
+        this.wordWrap = wordWrap;
+        if (largeFileViewer != null) return;
+        // Plain text wraps or not in its view rather than in the layout
+        boolean styled = textDocument instanceof StyledDocument;
+        if (!styled) showDocument();
+        if (wordWrap || !styled) {
+            scrollPane.setViewportView(textArea);
+        } else {
+            // Styled text has no unwrapped view, so it's given its full width in a panel
             JPanel panel = new JPanel(new BorderLayout());
             scrollPane.setViewportView(panel);
             panel.add(textArea);
         }
+        showLineNumbers(lineNumbers);
+    }
+
+    private void showLineNumbers(boolean lineNumbers) {
+        this.lineNumbers = lineNumbers;
+        if (largeFileViewer != null) return;
+        scrollPane.setRowHeaderView(lineNumbers ? gutter : null);
+    }
+
+    private void goToLine() {
+        int lines = largeFileViewer != null ? largeFileViewer.getFile().getLineCount() : lineIndex.getLineCount();
+        JFrame chooser = makeChooserFrame();
+        chooser.setVisible(true);
+        String input = JOptionPane.showInputDialog(chooser, "Line (1 - " + lines + "):", "Go To Line", JOptionPane.QUESTION_MESSAGE);
+        chooser.setVisible(false);
+        chooser.dispose();
+        if (input == null || input.trim().isEmpty()) return;
+        int line;
+        try {
+            line = Math.max(1, Math.min(Integer.parseInt(input.trim()), lines));
+        } catch (NumberFormatException ex) {
+            statusBar.setMessage("Not a line number: " + input.trim());
+            return;
+        }
+        if (largeFileViewer != null) {
+            largeFileViewer.scrollToLine(line - 1);
+        } else {
+            int offset = lineIndex.getLineStartOffset(line - 1);
+            textArea.setCaretPosition(offset);
+            try {
+                // Bring the line to the top, the way the large file viewer does
+                Rectangle2D at = textArea.modelToView2D(offset);
+                if (at != null) textArea.scrollRectToVisible(new Rectangle(0, (int) at.getY(), 1, textArea.getVisibleRect().height));
+            } catch (BadLocationException ex) {
+                ex.printStackTrace();
+            }
+            textArea.requestFocusInWindow();
+        }
+        statusBar.setMessage("Line " + line + " of " + lines);
     }
 
     private void openFontChooser() {
         JFrame chooser = makeChooserFrame();
-        chooser.add(new FontChooser(this, chooser, textArea.getFont()));
+        chooser.add(new FontChooser(this, chooser, textArea.getFont(), fontCatalog));
         chooser.setSize(new Dimension(400, 300));
         chooser.setLocationRelativeTo(null);
         chooser.setVisible(true);
@@ -667,22 +1312,178 @@ public class TrophonixTXT extends JFrame {
         return chooserFrame;
     }
 
+    /**
+     * Builds the find and replace bars, the first time either is opened.
+     */
+    private void buildFindBar() {
+        if (findContainer != null) return;
+        findContainer = new JPanel(new BorderLayout());
+
+        findPanel = new JPanel(new BorderLayout());
+        findPanel.setBorder(null);
+
+        findTextField = new JTextField();
+        findTextField.addActionListener((event) -> {
+            findTypingTimer.stop();
+            find(false);
+        });
+        findTypingTimer.setRepeats(false);
+        findTextField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                findTyped();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                findTyped();
+            }
+
+            public void changedUpdate(DocumentEvent e) {}
+        });
+        findPanel.add(findTextField, BorderLayout.CENTER);
+
+        UndoManager findUndoManager = new UndoManager();
+
+        findTextField.getDocument().addUndoableEditListener(event -> findUndoManager.addEdit(event.getEdit()));
+
+        findTextField.getActionMap().put("undo", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (findUndoManager.canUndo()) {
+                    findUndoManager.undo();
+                }
+            }
+        });
+        findTextField.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()), "undo");
+
+        findTextField.getActionMap().put("redo", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (findUndoManager.canRedo()) {
+                    findUndoManager.redo();
+                }
+            }
+        });
+        findTextField.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, Toolkit.getDefaultToolkit().getMenuShortcutKeyMask() | InputEvent.SHIFT_DOWN_MASK), "redo");
+
+        JPanel findButtonsPanel = new JPanel(new BorderLayout());
+
+        JCheckBox findCaseSensitive = new JCheckBox("Ignore Case");
+        findCaseSensitive.addActionListener(e -> {
+            findIgnoreCase = !findIgnoreCase;
+            findTextField.requestFocusInWindow();
+            find(false);
+        });
+        findButtonsPanel.add(findCaseSensitive, BorderLayout.WEST);
+
+        findButton = new JButton("Find");
+        findButton.addActionListener((event) -> {
+            if (findTask != null) {
+                findTask.cancel(true);
+            } else {
+                find(false);
+            }
+        });
+        findButtonsPanel.add(findButton, BorderLayout.CENTER);
+
+        ImageIcon xIcon = null, xHoverIcon = null;
+        try {
+            xIcon = new ImageIcon(ImageIO.read(getClass().getResource("resources/x.png")));
+            xHoverIcon = new ImageIcon(ImageIO.read(getClass().getResource("resources/x_hover.png")));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        JButton closeFindButton = new JButton();
+        try {
+            closeFindButton.setIcon(xIcon);
+            closeFindButton.setBorder(new EmptyBorder(3, 3, 3, 7));
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+        ImageIcon finalXHoverIcon = xHoverIcon;
+        ImageIcon finalXIcon = xIcon;
+        closeFindButton.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseEntered(MouseEvent e) {
+                closeFindButton.setIcon(finalXHoverIcon);
+                closeFindButton.setBorder(new EmptyBorder(3, 3, 3, 7));
+            }
+
+            @Override
+            public void mouseExited(MouseEvent e) {
+                closeFindButton.setIcon(finalXIcon);
+                closeFindButton.setBorder(new EmptyBorder(3, 3, 3, 7));
+            }
+        });
+        closeFindButton.addActionListener((event) -> toggleFind());
+        findButtonsPanel.add(closeFindButton, BorderLayout.EAST);
+
+        findPanel.add(findButtonsPanel, BorderLayout.EAST);
+
+        replacePanel = new JPanel(new BorderLayout());
+        replacePanel.setBorder(null);
+
+        replaceTextField = new JTextField();
+        replaceTextField.addActionListener(event -> replace());
+        replacePanel.add(replaceTextField, BorderLayout.CENTER);
+
+        UndoManager replaceUndoManager = new UndoManager();
+
+        replaceTextField.getDocument().addUndoableEditListener(event -> replaceUndoManager.addEdit(event.getEdit()));
+
+        replaceTextField.getActionMap().put("undo", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (replaceUndoManager.canUndo()) {
+                    replaceUndoManager.undo();
+                }
+            }
+        });
+        replaceTextField.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()), "undo");
+
+        replaceTextField.getActionMap().put("redo", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (replaceUndoManager.canRedo()) {
+                    replaceUndoManager.redo();
+                }
+            }
+        });
+        replaceTextField.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, Toolkit.getDefaultToolkit().getMenuShortcutKeyMask() | InputEvent.SHIFT_DOWN_MASK), "redo");
+
+        JPanel replaceButtonPanel = new JPanel(new BorderLayout());
+
+        JButton replaceButton = new JButton("Replace");
+        replaceButton.addActionListener(event -> replace());
+        replaceButtonPanel.add(replaceButton, BorderLayout.WEST);
+
+        JButton replaceAllButton = new JButton("Replace All");
+        replaceAllButton.addActionListener(event -> replaceAll());
+        replaceButtonPanel.add(replaceAllButton, BorderLayout.EAST);
+
+        replacePanel.add(replaceButtonPanel, BorderLayout.EAST);
+    }
+
     private void toggleFind() {
+        if (!finding && isReadOnly()) return;
         finding = !finding;
         if (finding) {
+            buildFindBar();
             findContainer.add(findPanel, BorderLayout.CENTER);
             mainPanel.add(findContainer, BorderLayout.NORTH);
             findTextField.requestFocusInWindow();
         } else {
             if (replacing) toggleReplace();
-            textArea.getHighlighter().removeAllHighlights();
+            clearFind();
             mainPanel.remove(findContainer);
-            findScrollIndex = -1;
         }
         revalidate();
     }
 
     private void toggleReplace() {
+        buildFindBar();
         replacing = !replacing;
         if (replacing) {
             if (!finding) toggleFind();
@@ -696,61 +1497,197 @@ public class TrophonixTXT extends JFrame {
         revalidate();
     }
 
+    private void findTyped() {
+        findTypedAt = System.nanoTime();
+        if (findTask != null) {
+            // Its results are for text that's no longer in the find bar, and
+            // what it found so far is incomplete, so search again even if the
+            // text comes back to what it was
+            stopSearch();
+            lastFind = null;
+        }
+        findTypingTimer.restart();
+    }
+
+    // Stops the running search and drops any results it hasn't handed over yet
+    private void stopSearch() {
+        if (findTask == null) return;
+        findTask.cancel(true);
+        findTask = null;
+        findSequence++;
+        findButton.setText("Find");
+        statusBar.endTask(" ");
+    }
+
+    /**
+     * Searches for the find bar's text once typing has paused, starting from
+     * the match that is showing now.
+     */
+    private void findAsYouType() {
+        String search = findTextField.getText();
+        if (search.isEmpty()) {
+            clearFind();
+            return;
+        }
+        if (search.equals(lastFind) && lastFindIgnoreCase == findIgnoreCase) return;
+        findAnchor = findScrollIndex >= 0 && findScrollIndex < findMatches.size() ? findMatches.start(findScrollIndex) : 0;
+        searchFor(search, findTypedAt);
+    }
+
     private void find(boolean force) {
         String search = findTextField.getText();
         if (!search.isEmpty()) {
             if (!force && lastFind != null && !lastFind.isEmpty() && search.equals(lastFind) && lastFindIgnoreCase == findIgnoreCase) {
-                if (findIndexes.isEmpty()) return;
-                findScrollIndex ++;
-                if (findScrollIndex >= findIndexes.size()) findScrollIndex = 0;
-                Highlighter highlighter = textArea.getHighlighter();
-                highlighter.removeAllHighlights();
-                for (int i = 0; i < findIndexes.size(); i++) {
-                    FindEntry entry = findIndexes.get(i);
-                    try {
-                        highlighter.addHighlight(entry.start, entry.end,
-                                i == findScrollIndex ? selectedHighlighter : defaultHighlighter);
-                        if (i == findScrollIndex) {
-                            textArea.scrollRectToVisible(textArea.modelToView(entry.end));
-                        }
-                    } catch (BadLocationException ignored) {}
-                }
+                if (findMatches.isEmpty()) return;
+                showMatch(findScrollIndex + 1 >= findMatches.size() ? 0 : findScrollIndex + 1, true);
             } else {
-                lastFind = search;
-                lastFindIgnoreCase = findIgnoreCase;
-                findIndexes.clear();
-                findScrollIndex = -1;
-                Highlighter highlighter = textArea.getHighlighter();
-                highlighter.removeAllHighlights();
-                Pattern pattern = findIgnoreCase ? Pattern.compile(search, Pattern.CASE_INSENSITIVE) : Pattern.compile(search);
-                Matcher matcher = pattern.matcher(textArea.getText());
-                while (matcher.find()) {
-                    int start = matcher.start();
-                    int end = matcher.end();
-
-                    findIndexes.add(new FindEntry(start, end));
-                }
-                find(false);
+                searchFor(search, System.nanoTime());
+            }
+        }
+    }
+
+    private void searchFor(String search, long requestedAt) {
+        FindEngine.Query query;
+        try {
+            query = findEngine.compile(search, findIgnoreCase);
+        } catch (PatternSyntaxException ex) {
+            statusBar.setMessage("Invalid pattern: " + ex.getDescription());
+            return;
+        }
+        lastFind = search;
+        lastFindIgnoreCase = findIgnoreCase;
+        startSearch(query, true, requestedAt);
+    }
+
+    /**
+     * Searches the whole document in the background. The match list is kept
+     * up to date by a {@link MatchIndex} from then on.
+     */
+    private void startSearch(FindEngine.Query query, boolean scroll, long requestedAt) {
+        if (findTask != null) findTask.cancel(true);
+        if (matchIndex != null) matchIndex.detach();
+        findQuery = query;
+        findScrolls = scroll;
+        findRequestedAt = requestedAt;
+        findFirstHitNanos = -1;
+        int sequence = ++findSequence;
+        findScrollIndex = -1;
+        findMatches = new MatchList();
+        matchHighlighter.setMatches(findMatches, -1);
+        matchIndex = new MatchIndex(textDocument, query, findMatches, matchListener);
+        matchIndex.attach();
+        FindTask task = new FindTask(findEngine, query, textDocument.snapshot(),
+                matches -> {
+                    if (sequence == findSequence) addMatches(matches);
+                });
+        findTask = task;
+        task.addPropertyChangeListener(event -> {
+            if ("progress".equals(event.getPropertyName())) {
+                statusBar.setProgress((Integer) event.getNewValue());
+            } else if (task.isDone()) {
+                finishFind(task);
             }
+        });
+        findPartial = false;
+        findButton.setText("Stop");
+        statusBar.startTask("Searching...", () -> task.cancel(true));
+        task.start();
+    }
+
+    /**
+     * Searches again after an edit the match index couldn't handle itself,
+     * staying near the current match without scrolling to it.
+     */
+    private void refreshFind() {
+        findRefreshPending = false;
+        if (findQuery == null) return;
+        findAnchor = findScrollIndex >= 0 && findScrollIndex < findMatches.size() ? findMatches.start(findScrollIndex) : 0;
+        startSearch(findQuery, false, System.nanoTime());
+    }
+
+    /**
+     * Takes the next chunk of results from the running search. The first match
+     * at or after {@code findAnchor} is shown as soon as it arrives.
+     */
+    private void addMatches(MatchList matches) {
+        findMatches.addAll(matches);
+        if (findScrollIndex < 0) {
+            int next = findMatches.indexAtOrAfter(findAnchor);
+            if (next < findMatches.size()) {
+                findFirstHitNanos = System.nanoTime() - findRequestedAt;
+                showMatch(next, findScrolls);
+                return;
+            }
+        }
+        matchHighlighter.matchesAdded();
+    }
+
+    private void finishFind(FindTask task) {
+        if (task != findTask) return;
+        findTask = null;
+        findAnchor = 0;
+        findButton.setText("Find");
+        boolean replaceAll = replaceAllPending;
+        replaceAllPending = false;
+        if (task.isCancelled() || task.getStopReason() != null) {
+            // Keep what was found, but stop tracking edits for a list that is incomplete anyway
+            findPartial = true;
+            matchIndex.detach();
+            if (findScrollIndex < 0 && !findMatches.isEmpty()) showMatch(0, findScrolls);
+            String reason = task.isCancelled() ? "cancelled" : task.getStopReason();
+            statusBar.endTask("Search stopped (" + reason + "), " + findMatches.size() + " matches so far");
+            return;
+        }
+        try {
+            int count = task.get();
+            matchIndex.setComplete();
+            if (findScrollIndex < 0 && !findMatches.isEmpty()) showMatch(0, findScrolls);
+            String message = count + (count == 1 ? " match" : " matches") + " in "
+                    + task.getElapsedNanos() / 1_000_000 + " ms";
+            if (findFirstHitNanos >= 0) message += ", first hit after " + findFirstHitNanos / 1_000_000 + " ms";
+            statusBar.endTask(message);
+            if (replaceAll) replaceAll();
+        } catch (InterruptedException | ExecutionException ex) {
+            ex.printStackTrace();
+            statusBar.endTask("Search failed: " + ex.getCause());
         }
     }
 
+    private void showMatch(int index, boolean scroll) {
+        findScrollIndex = index;
+        matchHighlighter.setCurrent(index);
+        if (!scroll) return;
+        try {
+            textArea.scrollRectToVisible(textArea.modelToView(findMatches.end(index)));
+        } catch (BadLocationException ignored) {}
+    }
+
     private void replace() {
         String search = findTextField.getText();
         String replace = replaceTextField.getText();
         if (replace == null) return;
         if (lastFind != null && !lastFind.isEmpty() && search.equals(lastFind) && lastFindIgnoreCase == findIgnoreCase) {
-            if (findScrollIndex >= findIndexes.size()) return;
-            FindEntry entry = findIndexes.get(findScrollIndex);
-            String text = textArea.getText();
-            String before = text.substring(0, entry.start);
-            String after = text.substring(entry.end, text.length());
-            String newText = before + replace + after;
-            textArea.setText(newText);
-            triggerChange(text, newText);
-            find(true);
-            findScrollIndex ++;
-            find(false);
+            if (findScrollIndex < 0 || findScrollIndex >= findMatches.size()) return;
+            int start = findMatches.start(findScrollIndex);
+            int end = findMatches.end(findScrollIndex);
+            // Only a finished search keeps its matches in step with edits
+            if ((findTask != null || findPartial) && !MatchIndex.isMatch(textDocument, findQuery, start, end)) {
+                statusBar.setMessage("The text has changed since it was found, search again to replace it");
+                return;
+            }
+            int after = start + replace.length();
+            replaceMatches(findScrollIndex, findScrollIndex, replace);
+            if (findPartial) {
+                // Nothing tracks edits for a stopped search, so the list is fixed up here
+                findMatches.splice(findScrollIndex, findScrollIndex + 1, new MatchList());
+                findMatches.shift(findScrollIndex, replace.length() - (end - start));
+                matchHighlighter.setMatches(findMatches, -1);
+            }
+            // The match index has already searched the edited line again
+            if (findTask == null && !findMatches.isEmpty()) {
+                int next = findMatches.indexAtOrAfter(after);
+                showMatch(next < findMatches.size() ? next : 0, true);
+            }
         }
     }
 
@@ -759,53 +1696,62 @@ public class TrophonixTXT extends JFrame {
         String replace = replaceTextField.getText();
         if (replace == null) return;
         if (lastFind != null && !lastFind.isEmpty() && search.equals(lastFind) && lastFindIgnoreCase == findIgnoreCase) {
-            String text = textArea.getText();
-            String newText = text.replace(search, replace);
-            textArea.setText(newText);
-            triggerChange(text, newText);
-            find(true);
+            if (findTask != null) {
+                // Replace what the search finds once it is done
+                replaceAllPending = true;
+                return;
+            }
+            if (findPartial) {
+                statusBar.setMessage("The search was stopped early, so not every match is known");
+                return;
+            }
+            int count = findMatches.size();
+            if (count == 0) return;
+            // Updating the index per replacement would cost O(matches) each time
+            matchIndex.detach();
+            replaceMatches(0, count - 1, replace);
+            startSearch(findQuery, true, System.nanoTime());
+            statusBar.setMessage("Replaced " + count + (count == 1 ? " match" : " matches"));
         }
     }
 
-    private void triggerChange(String text, String newText) {
-        undoManager.undoableEditHappened(new UndoableEditEvent(textArea, new AbstractUndoableEdit() {
-            @Override
-            public void undo() throws CannotUndoException {
-                super.undo();
-                textArea.setText(text);
-            }
-
-            @Override
-            public void redo() throws CannotRedoException {
-                super.redo();
-                textArea.setText(newText);
+    /**
+     * Replaces matches {@code first} to {@code last} in place, back to front so
+     * the earlier offsets stay valid, as a single undoable edit. The undo only
+     * keeps the replaced ranges, not copies of the document.
+     */
+    private void replaceMatches(int first, int last, String replacement) {
+        undoManager.beginGroup();
+        try {
+            for (int i = last; i >= first; i--) {
+                int start = findMatches.start(i);
+                ((AbstractDocument) textDocument).replace(start, findMatches.end(i) - start, replacement, null);
             }
-        }));
+        } catch (BadLocationException ex) {
+            ex.printStackTrace();
+        } finally {
+            undoManager.endGroup();
+        }
+        checkForChanges();
     }
 
     public void font(Font font) {
         textArea.setFont(font);
-        config.setProperty("fontFamily", font.getFamily());
-        config.setProperty("fontStyle", font.getStyle() + "");
-        config.setProperty("fontSize", font.getSize() + "");
-        saveConfig();
-    }
-
-    private void saveConfig() {
-        try {
-            config.store(new FileOutputStream(configFile), "saving");
-        } catch (IOException ex) {
-            ex.printStackTrace();
-        }
+        if (largeFileViewer != null) largeFileViewer.revalidate();
+        settings.set("fontFamily", font.getFamily());
+        settings.set("fontStyle", font.getStyle());
+        settings.set("fontSize", font.getSize());
     }
 
     public static void main(String[] args) {
+        StartupProfiler.start();
         try {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
         } catch (ClassNotFoundException | UnsupportedLookAndFeelException | IllegalAccessException | InstantiationException ex) {
         }
         System.setProperty("apple.laf.useScreenMenuBar", "true");
         UIManager.put("PopupMenu.border", BorderFactory.createEmptyBorder());
+        StartupProfiler.phase("look and feel");
         new TrophonixTXT();
     }
 
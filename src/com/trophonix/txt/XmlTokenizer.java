@@ -0,0 +1,113 @@
+package com.trophonix.txt;
+
+/**
+ * Tokenizer for XML: tags, attributes and their values, comments and CDATA
+ * sections. Tags, comments, CDATA and attribute values can all run over
+ * several lines.
+ */
+public class XmlTokenizer implements Tokenizer {
+
+    private static final int IN_COMMENT = 1;
+    private static final int IN_TAG = 2;
+    private static final int IN_CDATA = 3;
+    private static final int IN_DOUBLE_QUOTED = 4;
+    private static final int IN_SINGLE_QUOTED = 5;
+
+    @Override
+    public int tokenize(CharSequence line, int state, Sink sink) {
+        int length = line.length();
+        int i = 0;
+        while (i < length) {
+            switch (state) {
+                case IN_COMMENT:
+                    i = endAt(line, i, i, "-->", TokenType.COMMENT, sink);
+                    if (i < 0) return IN_COMMENT;
+                    state = INITIAL;
+                    break;
+                case IN_CDATA:
+                    i = endAt(line, i, i, "]]>", TokenType.STRING, sink);
+                    if (i < 0) return IN_CDATA;
+                    state = INITIAL;
+                    break;
+                case IN_DOUBLE_QUOTED:
+                case IN_SINGLE_QUOTED:
+                    i = endAt(line, i, i, state == IN_DOUBLE_QUOTED ? "\"" : "'", TokenType.STRING, sink);
+                    if (i < 0) return state;
+                    state = IN_TAG;
+                    break;
+                case IN_TAG:
+                    char c = line.charAt(i);
+                    if (c == '>') {
+                        sink.token(i, i + 1, TokenType.KEYWORD);
+                        i++;
+                        state = INITIAL;
+                    } else if ((c == '/' || c == '?') && i + 1 < length && line.charAt(i + 1) == '>') {
+                        sink.token(i, i + 2, TokenType.KEYWORD);
+                        i += 2;
+                        state = INITIAL;
+                    } else if (c == '"' || c == '\'') {
+                        i = endAt(line, i, i + 1, String.valueOf(c), TokenType.STRING, sink);
+                        if (i < 0) return c == '"' ? IN_DOUBLE_QUOTED : IN_SINGLE_QUOTED;
+                    } else if (isNameChar(c)) {
+                        int end = nameEnd(line, i);
+                        sink.token(i, end, TokenType.NAME);
+                        i = end;
+                    } else {
+                        i++;
+                    }
+                    break;
+                default:
+                    int open = Tokenizer.indexOf(line, "<", i);
+                    if (open < 0) return INITIAL;
+                    if (startsWith(line, open, "<!--")) {
+                        i = endAt(line, open, open + 4, "-->", TokenType.COMMENT, sink);
+                        if (i < 0) return IN_COMMENT;
+                    } else if (startsWith(line, open, "<![CDATA[")) {
+                        i = endAt(line, open, open + 9, "]]>", TokenType.STRING, sink);
+                        if (i < 0) return IN_CDATA;
+                    } else {
+                        int end = open + 1;
+                        if (end < length && "/?!".indexOf(line.charAt(end)) >= 0) end++;
+                        end = nameEnd(line, end);
+                        sink.token(open, end, TokenType.KEYWORD);
+                        i = end;
+                        state = IN_TAG;
+                    }
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Reports a token from {@code start} through the first {@code close} at or
+     * after {@code from} and returns where it ends, or -1 if it runs past the
+     * end of the line.
+     */
+    private static int endAt(CharSequence line, int start, int from, String close, TokenType type, Sink sink) {
+        int end = Tokenizer.indexOf(line, close, from);
+        if (end < 0) {
+            sink.token(start, line.length(), type);
+            return -1;
+        }
+        sink.token(start, end + close.length(), type);
+        return end + close.length();
+    }
+
+    private static boolean startsWith(CharSequence line, int offset, String prefix) {
+        if (offset + prefix.length() > line.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line.charAt(offset + i) != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static int nameEnd(CharSequence line, int i) {
+        while (i < line.length() && isNameChar(line.charAt(i))) i++;
+        return i;
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == ':' || c == '_' || c == '-' || c == '.';
+    }
+
+}